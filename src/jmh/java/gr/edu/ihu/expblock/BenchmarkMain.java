@@ -0,0 +1,24 @@
+// BenchmarkMain.java
+package gr.edu.ihu.expblock;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler always on, so that every result comes
+ * with its allocation rate per operation (gc.alloc.rate.norm). Takes the usual JMH
+ * command line, e.g. a benchmark regex: BenchmarkMain ExpBlockBenchmark -p b=1000
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,65 @@
+// EvictionBenchmark.java
+package gr.edu.ihu.expblock;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * One eviction round (ExpBlock.evictionRound) over a full engine. Before every
+ * invocation the engine is refilled with b blocks holding a skewed number of records,
+ * which is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvictionBenchmark {
+
+    @Param({"1000", "10000"})
+    public int b;
+
+    Record[] records;
+    ExpBlock engine;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        records = new VoterGenerator(42, 0.3).records(2 * b, 100);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < records.length; i++) {
+            // The first b records open one block each; the rest go to few, busy blocks
+            int key = i < b ? i : (int) (b * Math.pow(random.nextDouble(), 3));
+            records[i].bKeys = new String[]{"k" + key};
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        engine = new ExpBlock(0.1, 2.0 / 3, b,
+                new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8), VoterGenerator.DISCARD);
+        for (Record rec : records) {
+            engine.putKeyed(rec);
+        }
+    }
+
+    @Benchmark
+    public int evictionSweep() {
+        engine.evictionRound();
+        return engine.occupied;
+    }
+}
@@ -0,0 +1,67 @@
+// ExpBlockBenchmark.java
+package gr.edu.ihu.expblock;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * ExpBlock.put on a synthetic stream, per record, including the eviction rounds it
+ * triggers. Each iteration starts from an empty engine; epsilon sets the block
+ * capacity w (0.1 -> 1348, 0.2 -> 337, 0.3 -> 150 records with q = 2/3).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpBlockBenchmark {
+
+    static final int STREAM = 1 << 18;
+
+    @Param({"100", "1000", "10000"})
+    public int b;
+
+    @Param({"0.1", "0.2", "0.3"})
+    public double epsilon;
+
+    Record[] records;
+    ExpBlock engine;
+    int next;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        records = new VoterGenerator(42, 0.3).records(STREAM / 2, 2000);
+        MinHash minHash = new MinHash();
+        for (Record rec : records) {
+            rec.getBlockingKeys(minHash);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        engine = new ExpBlock(epsilon, 2.0 / 3, b,
+                new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8), VoterGenerator.DISCARD);
+        next = 0;
+    }
+
+    @Benchmark
+    public Block.PutResult put() {
+        Record rec = records[next];
+        next = (next + 1) & (STREAM - 1);
+        return engine.putKeyed(rec);
+    }
+}
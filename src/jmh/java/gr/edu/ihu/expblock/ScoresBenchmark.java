@@ -0,0 +1,83 @@
+// ScoresBenchmark.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * SimilarityService.getScores with semantic scoring on and off. The model is a
+ * synthetic 300-dimensional EmbeddingStore over the generator's vocabulary, so the
+ * semantic path costs what it does with the real store, minus page faults.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoresBenchmark {
+
+    @Param({"true", "false"})
+    public boolean semantic;
+
+    String[] left;
+    String[] right;
+    TextFeatures[] leftFeatures;
+    TextFeatures[] rightFeatures;
+    ExperimentConfig config;
+    int i;
+
+    @Setup
+    public void setup() throws IOException {
+        SimilarityService.initialize(VoterGenerator.writeEmbeddingStore(300, 7).getPath());
+        config = semantic
+                ? new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.3, 0.7, 0.8, 0.8, 0.8)
+                : new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8);
+        int pairs = SimilarityBenchmark.PAIRS;
+        Record[] records = new VoterGenerator(42, 0.3).records(pairs + 1, 100);
+        left = new String[pairs];
+        right = new String[pairs];
+        leftFeatures = new TextFeatures[pairs];
+        rightFeatures = new TextFeatures[pairs];
+        for (int k = 0; k < pairs; k++) {
+            Record a = records[2 * k];
+            Record b = records[2 * (k % 2 == 0 ? k : k + 1) + 1];
+            left[k] = a.name;
+            right[k] = b.name;
+            leftFeatures[k] = a.getNameFeatures();
+            rightFeatures[k] = b.getNameFeatures();
+        }
+    }
+
+    private int next() {
+        i = (i + 1) & (SimilarityBenchmark.PAIRS - 1);
+        return i;
+    }
+
+    /** From the raw strings: normalization, embedding lookups and scores. */
+    @Benchmark
+    public SimilarityService.SimilarityScores getScores() {
+        int k = next();
+        return SimilarityService.getScores(left[k], right[k], config);
+    }
+
+    /** From features computed at ingest, as Block.put scores a pair. */
+    @Benchmark
+    public SimilarityService.SimilarityScores getScoresFromFeatures() {
+        int k = next();
+        return SimilarityService.getScores(leftFeatures[k], rightFeatures[k], config);
+    }
+}
@@ -0,0 +1,112 @@
+// SimilarityBenchmark.java
+package gr.edu.ihu.expblock;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * The syntactic kernels and blocking-key hashes, on pairs of surnames from the
+ * synthetic generator: even pairs are an A record and its B counterpart, odd pairs
+ * two unrelated records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimilarityBenchmark {
+
+    static final int PAIRS = 1024;
+
+    String[] left;
+    String[] right;
+    String[] leftNormalized;
+    String[] rightNormalized;
+    int[] leftMask;
+    int[] rightMask;
+    Block block;
+    MinHash minHash;
+    MinHash bandedMinHash;
+    int i;
+
+    @Setup
+    public void setup() {
+        Record[] records = new VoterGenerator(42, 0.3).records(PAIRS + 1, 100);
+        left = new String[PAIRS];
+        right = new String[PAIRS];
+        leftNormalized = new String[PAIRS];
+        rightNormalized = new String[PAIRS];
+        leftMask = new int[PAIRS];
+        rightMask = new int[PAIRS];
+        for (int k = 0; k < PAIRS; k++) {
+            Record a = records[2 * k];
+            Record b = records[2 * (k % 2 == 0 ? k : k + 1) + 1];
+            left[k] = a.surname;
+            right[k] = b.surname;
+            leftNormalized[k] = a.getSurnameFeatures().normalized;
+            rightNormalized[k] = b.getSurnameFeatures().normalized;
+            leftMask[k] = a.getSurnameFeatures().charMask;
+            rightMask[k] = b.getSurnameFeatures().charMask;
+        }
+        block = new Block("bench", 2.0 / 3, new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8));
+        minHash = new MinHash();
+        bandedMinHash = new MinHash(4, 2, 2);
+    }
+
+    private int next() {
+        i = (i + 1) & (PAIRS - 1);
+        return i;
+    }
+
+    @Benchmark
+    public int editDistance() {
+        int k = next();
+        return block.editDistance(left[k], right[k]);
+    }
+
+    /** The bounded kernel Block.put uses, with the bound of a 0.8 threshold. */
+    @Benchmark
+    public int editDistanceBounded() {
+        int k = next();
+        String s = leftNormalized[k];
+        String t = rightNormalized[k];
+        return Levenshtein.distance(s, t, Math.max(s.length(), t.length()) / 5);
+    }
+
+    /** calcularCharEmbeddingSimilarity on precomputed masks, as in Block.put. */
+    @Benchmark
+    public double charJaccard() {
+        int k = next();
+        return SimilarityService.charJaccard(leftMask[k], rightMask[k]);
+    }
+
+    /** The same, building the masks from the normalized strings. */
+    @Benchmark
+    public double charJaccardFromText() {
+        int k = next();
+        return SimilarityService.charJaccard(SimilarityService.charMask(leftNormalized[k]),
+                SimilarityService.charMask(rightNormalized[k]));
+    }
+
+    @Benchmark
+    public String minHash() {
+        return minHash.hash(left[next()]);
+    }
+
+    @Benchmark
+    public String[] minHashBands() {
+        return bandedMinHash.bandKeys(leftNormalized[next()]);
+    }
+}
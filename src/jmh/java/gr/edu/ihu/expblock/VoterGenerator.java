@@ -0,0 +1,140 @@
+// VoterGenerator.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic voter records for the benchmarks, in the layout of the test_voters files
+ * (id, surname, name, address, town, poBox), so that no external data is needed.
+ *
+ * Record i of source A ("a<i>_0") has a counterpart "b<i>" in source B, which carries a
+ * typo (substitution, deletion or transposition) in its surname and/or name with the
+ * given probability. Surnames and names are drawn from skewed lists, as in the real
+ * files, so some blocks are much larger than others.
+ */
+public class VoterGenerator {
+
+    static final String[] SURNAMES = {
+        "SMITH", "JOHNSON", "WILLIAMS", "BROWN", "JONES", "GARCIA", "MILLER", "DAVIS", "RODRIGUEZ", "MARTINEZ",
+        "HERNANDEZ", "LOPEZ", "GONZALEZ", "WILSON", "ANDERSON", "THOMAS", "TAYLOR", "MOORE", "JACKSON", "MARTIN",
+        "LEE", "PEREZ", "THOMPSON", "WHITE", "HARRIS", "SANCHEZ", "CLARK", "RAMIREZ", "LEWIS", "ROBINSON",
+        "WALKER", "YOUNG", "ALLEN", "KING", "WRIGHT", "SCOTT", "TORRES", "NGUYEN", "HILL", "FLORES",
+        "GREEN", "ADAMS", "NELSON", "BAKER", "HALL", "RIVERA", "CAMPBELL", "MITCHELL", "CARTER", "ROBERTS",
+        "CARMICHAEL", "BLACKWELL", "MCALLISTER", "PENNINGTON", "WHITAKER", "HOLLOWAY", "FITZGERALD", "VAUGHAN"
+    };
+    static final String[] NAMES = {
+        "JAMES", "MARY", "ROBERT", "PATRICIA", "JOHN", "JENNIFER", "MICHAEL", "LINDA", "DAVID", "ELIZABETH",
+        "WILLIAM", "BARBARA", "RICHARD", "SUSAN", "JOSEPH", "JESSICA", "THOMAS", "SARAH", "CHRISTOPHER", "KAREN",
+        "CHARLES", "LISA", "DANIEL", "NANCY", "MATTHEW", "BETTY", "ANTHONY", "MARGARET", "MARK", "SANDRA",
+        "BRENDA", "BRIAN", "HAROLD", "NADINE", "ALICE", "GRANT", "LOUISE", "MARY ANN", "JO ELLEN", "BILLY RAY"
+    };
+    static final String[] TOWNS = {"RALEIGH", "DURHAM", "CARY", "APEX", "WAKE FOREST", "GARNER", "MORRISVILLE"};
+
+    private final SplittableRandom random;
+    private final double typoRate;
+
+    public VoterGenerator(long seed, double typoRate) {
+        this.random = new SplittableRandom(seed);
+        this.typoRate = typoRate;
+    }
+
+    /**
+     * Generates n pairs of lines, interleaved A, B, A, B... as ExpBlock.main reads them.
+     * @param zipCodes the number of distinct poBox values, which bounds the number of blocks.
+     */
+    public String[][] lines(int n, int zipCodes) {
+        String[][] lines = new String[2 * n][];
+        for (int i = 0; i < n; i++) {
+            String surname = pick(SURNAMES);
+            String name = pick(NAMES);
+            String address = (100 + random.nextInt(9900)) + " MAIN ST";
+            String town = TOWNS[random.nextInt(TOWNS.length)];
+            String poBox = Integer.toString(27000 + random.nextInt(zipCodes));
+            lines[2 * i] = new String[]{"a" + i + "_0", surname, name, address, town, poBox};
+            lines[2 * i + 1] = new String[]{"b" + i, typo(surname), typo(name), address, town, poBox};
+        }
+        return lines;
+    }
+
+    /** Generates n pairs of prepared records (features computed), interleaved A, B. */
+    public Record[] records(int n, int zipCodes) {
+        String[][] lines = lines(n, zipCodes);
+        Record[] records = new Record[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            records[i] = ExpBlock.prepare(lines[i]);
+        }
+        return records;
+    }
+
+    /** Skewed choice: the first entries of the list are drawn far more often. */
+    private String pick(String[] values) {
+        double u = random.nextDouble();
+        return values[(int) (values.length * u * u)];
+    }
+
+    private String typo(String s) {
+        if (s.length() < 2 || random.nextDouble() >= typoRate) return s;
+        char[] c = s.toCharArray();
+        int i = random.nextInt(c.length - 1);
+        switch (random.nextInt(3)) {
+            case 0:
+                c[i] = (char) ('A' + random.nextInt(26));
+                return new String(c);
+            case 1:
+                return s.substring(0, i) + s.substring(i + 1);
+            default:
+                char t = c[i];
+                c[i] = c[i + 1];
+                c[i + 1] = t;
+                return new String(c);
+        }
+    }
+
+    /**
+     * Writes an EmbeddingStore with a random unit vector for every token of the name
+     * lists, lower-cased as SimilarityService looks them up, so that semantic scoring
+     * can be benchmarked without the word2vec model.
+     */
+    public static File writeEmbeddingStore(int dim, long seed) throws IOException {
+        LinkedHashSet<String> vocabulary = new LinkedHashSet<>();
+        for (String[] list : new String[][]{SURNAMES, NAMES}) {
+            for (String value : list) {
+                for (String token : value.toLowerCase().split(" ")) vocabulary.add(token);
+            }
+        }
+        File file = File.createTempFile("expblock-bench", ".emb");
+        file.deleteOnExit();
+        SplittableRandom random = new SplittableRandom(seed);
+        try (EmbeddingStore.Writer writer = new EmbeddingStore.Writer(file, dim, false)) {
+            for (String word : vocabulary) {
+                float[] v = new float[dim];
+                double norm = 0;
+                for (int i = 0; i < dim; i++) {
+                    v[i] = (float) (random.nextDouble() * 2 - 1);
+                    norm += v[i] * v[i];
+                }
+                for (int i = 0; i < dim; i++) v[i] /= (float) Math.sqrt(norm);
+                writer.add(word, v);
+            }
+        }
+        return file;
+    }
+
+    /** A sink that drops the matches, so the benchmarks measure matching only. */
+    static final MatchSink DISCARD = new MatchSink() {
+        @Override
+        public void accept(Record existing, Record incoming, double score) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
@@ -0,0 +1,112 @@
+// AdmissionFilter.java
+package gr.edu.ihu.expblock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admission control for new blocks (see ExpBlock.admission), after TinyLFU: most keys of
+ * a voter file are seen once, and a block created for each of them only hastens the next
+ * eviction round, at the expense of the blocks the degree function tries to keep.
+ *
+ * A FrequencySketch, as in EmbeddingCache, estimates how often each blocking key has been
+ * put recently. A key without a block is admitted when its estimate reaches minFrequency,
+ * or when it exceeds the estimate of the key of a block that eviction could take instead.
+ *
+ * A rejected record is kept in a small probation ring. When its key is admitted later,
+ * the records of the ring under that key are put into the new block, oldest first, like
+ * any other record: they are compared with each other and with the record that got the
+ * key admitted, so a pair whose second record arrives soon after the first one is still
+ * found. Older rejected records are overwritten and their pairs lost.
+ */
+public class AdmissionFilter {
+
+    final FrequencySketch sketch;
+    public int minFrequency = 2;
+
+    // Anel de probação: chave, hash e registro de cada rejeitado (salvo pelo Checkpointer)
+    final String[] probationKeys;
+    private final int[] probationHashes;
+    final Record[] probationRecords;
+    int probationNext = 0;
+
+    long rejected = 0;
+    long probationHits = 0;
+
+    /**
+     * @param expectedKeys roughly the number of distinct keys to tell apart, e.g. a few
+     * times b; sets the width of the sketch.
+     * @param probationSize the number of rejected records kept.
+     */
+    public AdmissionFilter(int expectedKeys, int probationSize) {
+        this(new FrequencySketch(expectedKeys), probationSize);
+    }
+
+    /** A filter over an existing sketch, as restored by Checkpointer. */
+    AdmissionFilter(FrequencySketch sketch, int probationSize) {
+        this.sketch = sketch;
+        this.probationKeys = new String[probationSize];
+        this.probationHashes = new int[probationSize];
+        this.probationRecords = new Record[probationSize];
+    }
+
+    /** Counts one put under key. */
+    public void increment(String key) {
+        sketch.increment(key.hashCode());
+    }
+
+    /** Estimated number of recent puts under key. */
+    public int frequency(String key) {
+        return sketch.frequency(key.hashCode());
+    }
+
+    /**
+     * @param victimKey the key of a block sampled from those held, which the new block
+     * would in effect displace sooner or later; null when none is held.
+     */
+    boolean admit(String key, String victimKey) {
+        int frequency = frequency(key);
+        return frequency >= minFrequency || frequency > (victimKey == null ? 0 : frequency(victimKey));
+    }
+
+    /** Keeps a rejected record, overwriting the oldest one. */
+    void reject(String key, Record rec) {
+        rejected++;
+        // Calcula as features já, enquanto o registro está em memória de qualquer modo
+        rec.getNameFeatures();
+        rec.getSurnameFeatures();
+        hold(probationNext, key, rec);
+        probationNext = probationNext + 1 == probationKeys.length ? 0 : probationNext + 1;
+    }
+
+    void hold(int slot, String key, Record rec) {
+        probationKeys[slot] = key;
+        probationHashes[slot] = key.hashCode();
+        probationRecords[slot] = rec;
+    }
+
+    /**
+     * Takes the rejected records under key out of the ring.
+     * @return the records, oldest first, for ExpBlock to put into the new block of key.
+     */
+    List<Record> release(String key) {
+        List<Record> released = new ArrayList<>(2);
+        int hash = key.hashCode();
+        int n = probationKeys.length;
+        for (int i = 0; i < n; i++) {
+            int slot = (probationNext + i) % n;
+            if (probationRecords[slot] != null && probationHashes[slot] == hash && probationKeys[slot].equals(key)) {
+                released.add(probationRecords[slot]);
+                probationHits++;
+                probationKeys[slot] = null;
+                probationRecords[slot] = null;
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionFilter{rejected=" + rejected + ", probationHits=" + probationHits + "}";
+    }
+}
@@ -0,0 +1,355 @@
+// AsyncMatchSink.java
+package gr.edu.ihu.expblock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MatchSink that moves formatting and writing off the matching threads.
+ *
+ * accept only copies the fields written for the pair (the two ids, plus the surnames
+ * and names in TEXT) and the score into the active buffer under a short lock, so a
+ * buffered match does not keep its records, with their features, reachable. A
+ * background thread swaps the active buffer with a spare one whenever it is half full,
+ * or every LINGER_MS, and writes the swapped batch to a buffered stream, so the matching
+ * threads never wait for the disk. They only wait if the writer falls a whole buffer
+ * behind, which is counted in stalls(). Once the writer has failed, or the sink is
+ * closed, accept throws instead of losing the match.
+ *
+ * Two output formats are supported:
+ * - TEXT: the lines previously written to results.txt,
+ *   MATCH (Score: 0.93): id (surname, name) <-> id (surname, name)
+ * - BINARY: a 4-byte MAGIC and a version, then per match the two ids (modified UTF-8,
+ *   as DataOutputStream.writeUTF) and the score as a float. See read.
+ */
+public class AsyncMatchSink implements MatchSink {
+
+    public enum Format { TEXT, BINARY }
+
+    public static final int MAGIC = 0x4D415443; // "MATC"
+    public static final int VERSION = 1;
+
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final long LINGER_MS = 50;
+
+    /** Callback of read, for the binary format. */
+    public interface BinaryMatchConsumer {
+        void accept(String existingId, String incomingId, float score);
+    }
+
+    private static final class Batch {
+        final String[] existingIds;
+        final String[] incomingIds;
+        // Só no formato TEXT
+        final String[] existingNames;
+        final String[] existingSurnames;
+        final String[] incomingNames;
+        final String[] incomingSurnames;
+        final double[] scores;
+        int size;
+
+        Batch(int capacity, boolean names) {
+            existingIds = new String[capacity];
+            incomingIds = new String[capacity];
+            existingNames = names ? new String[capacity] : null;
+            existingSurnames = names ? new String[capacity] : null;
+            incomingNames = names ? new String[capacity] : null;
+            incomingSurnames = names ? new String[capacity] : null;
+            scores = new double[capacity];
+        }
+    }
+
+    private final Format format;
+    private final int capacity;
+    private final BufferedWriter text;
+    private final DataOutputStream binary;
+    private final Thread writerThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    // Guarded by lock
+    private Batch active;
+    private Batch spare;
+    private long accepted = 0;
+    private long durable = 0;
+    private long stalls = 0;
+    private boolean flushRequested = false;
+    private boolean closing = false;
+    private IOException failure;
+
+    public AsyncMatchSink(File file, Format format) throws IOException {
+        this(file, format, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of matches each of the two buffers holds.
+     */
+    public AsyncMatchSink(File file, Format format, int capacity) throws IOException {
+        this(file, format, capacity, false);
+    }
+
+    /**
+     * @param append whether to add to the matches already in the file, e.g. when a run
+     * resumes from a checkpoint, instead of truncating it.
+     */
+    public AsyncMatchSink(File file, Format format, int capacity, boolean append) throws IOException {
+        this.format = format;
+        this.capacity = capacity;
+        this.active = new Batch(capacity, format == Format.TEXT);
+        this.spare = new Batch(capacity, format == Format.TEXT);
+        // O cabeçalho binário só é escrito num arquivo novo ou vazio
+        boolean header = !append || file.length() == 0;
+        FileOutputStream out = new FileOutputStream(file, append);
+        if (format == Format.TEXT) {
+            // Mesmo charset padrão do FileWriter usado antes
+            this.text = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+            this.binary = null;
+        } else {
+            this.text = null;
+            this.binary = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            if (header) {
+                binary.writeInt(MAGIC);
+                binary.writeInt(VERSION);
+            }
+        }
+        this.writerThread = new Thread(this::drain, "expblock-match-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * @throws UncheckedIOException if the writer has failed.
+     * @throws IllegalStateException if the sink is closed.
+     */
+    @Override
+    public void accept(Record existing, Record incoming, double score) {
+        lock.lock();
+        try {
+            while (active.size == capacity && failure == null && writerThread.isAlive()) {
+                stalls++;
+                notEmpty.signal();
+                notFull.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(new IOException("Failed writing matches", failure));
+            }
+            if (closing) {
+                throw new IllegalStateException("Match sink is closed");
+            }
+            Batch batch = active;
+            int i = batch.size++;
+            batch.existingIds[i] = existing.id;
+            batch.incomingIds[i] = incoming.id;
+            if (batch.existingNames != null) {
+                batch.existingNames[i] = existing.name;
+                batch.existingSurnames[i] = existing.surname;
+                batch.incomingNames[i] = incoming.name;
+                batch.incomingSurnames[i] = incoming.surname;
+            }
+            batch.scores[i] = score;
+            accepted++;
+            if (batch.size == capacity / 2) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = accepted;
+            while (durable < target && failure == null && writerThread.isAlive()) {
+                flushRequested = true;
+                notEmpty.signal();
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new IOException("Failed writing matches", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closing) return;
+            closing = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new IOException("Failed writing matches", failure);
+        }
+    }
+
+    /** The number of matches accepted so far. */
+    public long accepted() {
+        lock.lock();
+        try {
+            return accepted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The number of times accept had to wait for the writer. */
+    public long stalls() {
+        lock.lock();
+        try {
+            return stalls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Batch batch;
+                boolean flush;
+                boolean last;
+                lock.lock();
+                try {
+                    if (active.size < capacity / 2 && !closing && !flushRequested) {
+                        notEmpty.await(LINGER_MS, TimeUnit.MILLISECONDS);
+                    }
+                    batch = active;
+                    active = spare;
+                    spare = batch;
+                    flush = flushRequested;
+                    flushRequested = false;
+                    last = closing;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                write(batch);
+                if (flush || last) {
+                    if (text != null) text.flush(); else binary.flush();
+                }
+
+                lock.lock();
+                try {
+                    durable += batch.size;
+                    batch.size = 0;
+                    flushed.signalAll();
+                    if (last && active.size == 0) {
+                        break;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Match writer interrupted", e));
+        } finally {
+            try {
+                if (text != null) text.close(); else binary.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+            lock.lock();
+            try {
+                notFull.signalAll();
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null) failure = e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(Batch batch) throws IOException {
+        for (int i = 0; i < batch.size; i++) {
+            if (format == Format.TEXT) {
+                text.write(String.format("MATCH (Score: %.2f): %s (%s, %s) <-> %s (%s, %s)",
+                        batch.scores[i], batch.existingIds[i], batch.existingSurnames[i], batch.existingNames[i],
+                        batch.incomingIds[i], batch.incomingSurnames[i], batch.incomingNames[i]));
+                text.write("\r\n");
+                batch.existingNames[i] = null;
+                batch.existingSurnames[i] = null;
+                batch.incomingNames[i] = null;
+                batch.incomingSurnames[i] = null;
+            } else {
+                binary.writeUTF(batch.existingIds[i]);
+                binary.writeUTF(batch.incomingIds[i]);
+                binary.writeFloat((float) batch.scores[i]);
+            }
+            // Libera as strings para o GC assim que escritas
+            batch.existingIds[i] = null;
+            batch.incomingIds[i] = null;
+        }
+    }
+
+    /**
+     * Reads a file written in the BINARY format.
+     * @return the number of matches read.
+     */
+    public static long read(File file, BinaryMatchConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a binary match file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported match file version " + version + ": " + file);
+            }
+            long n = 0;
+            while (true) {
+                String existingId;
+                try {
+                    existingId = in.readUTF();
+                } catch (EOFException e) {
+                    return n;
+                }
+                consumer.accept(existingId, in.readUTF(), in.readFloat());
+                n++;
+            }
+        }
+    }
+}
@@ -1,22 +1,23 @@
 // Block.java
 package gr.edu.ihu.expblock;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
 
 public class Block {
     String key;
-    ArrayList<Record> recordsA = new ArrayList<>();
-    ArrayList<Record> recordsB = new ArrayList<>();
+    // Records of each source, stored by column
+    final RecordStore recordsA;
+    final RecordStore recordsB;
     int falsePositives = 0;
     int recNo = 0;
     int lastRoundUsed = 0;
     public int degree = 0;
     double q = 0.0;
+    // Incremented whenever recordsA/recordsB change (see Checkpointer)
+    int modCount = 0;
 
     private final ExperimentConfig currentConfig; 
 
@@ -32,10 +33,27 @@ public class Block {
     private final double SIMILARITY_THRESHOLD;
     private final double NAME_SIMILARITY_THRESHOLD;
     private final double SURNAME_SIMILARITY_THRESHOLD;
+
+    // Lowest Levenshtein scores with which a pair can still satisfy the match rule
+    private final double NAME_MIN_LEVENSHTEIN_SCORE;
+    private final double SURNAME_MIN_LEVENSHTEIN_SCORE;
     
-    public class PutResult {
+    // Buffers for the semantic scores of one put, reused by the thread
+    private static final ThreadLocal<double[][]> SEMANTIC_SCORES = ThreadLocal.withInitial(() -> new double[2][64]);
+
+    public static class PutResult {
         public int truePositives;
         public int falsePositives;
+        // Size of the opposite side when the record arrived
+        public int candidates;
+        // Pairs actually compared (candidates not already compared under another key)
+        public int comparisons;
+        // Records removed because the block had reached w
+        public int removals;
+        // Top-k mode: pairs discarded by the upper bounds of their score before computing it
+        public int pruned;
+        // Top-k mode: the best matches of the record, best first (see ExpBlock.topK)
+        public List<TopMatches.Match> matches;
     }
 
     public Block(String key, double q, ExperimentConfig config) {
@@ -51,103 +69,314 @@ public class Block {
         this.SIMILARITY_THRESHOLD = config.similarityThreshold;
         this.NAME_SIMILARITY_THRESHOLD = config.nameSimilarityThreshold;
         this.SURNAME_SIMILARITY_THRESHOLD = config.surnameSimilarityThreshold;
+        this.NAME_MIN_LEVENSHTEIN_SCORE = minLevenshteinScore(NAME_SIMILARITY_THRESHOLD, NAME_WEIGHT, SURNAME_WEIGHT);
+        this.SURNAME_MIN_LEVENSHTEIN_SCORE = minLevenshteinScore(SURNAME_SIMILARITY_THRESHOLD, SURNAME_WEIGHT, NAME_WEIGHT);
+        this.recordsA = new RecordStore("A", SEMANTIC_SIMILARITY_WEIGHT > 0.0);
+        this.recordsB = new RecordStore("B", SEMANTIC_SIMILARITY_WEIGHT > 0.0);
+    }
+
+    /**
+     * Derives, for one field, the lowest Levenshtein score that still lets a pair satisfy
+     * either branch of the match rule, assuming the semantic and char-embedding scores of
+     * both fields and the other field's Levenshtein score are all 1.0. Pairs below it can be
+     * discarded without computing the rest of their scores.
+     */
+    private double minLevenshteinScore(double fieldThreshold, double fieldWeight, double otherWeight) {
+        double levenshteinShare = SYNTACTIC_SIMILARITY_WEIGHT * LEVENSHTEIN_WEIGHT;
+        if (levenshteinShare <= 0 || fieldWeight <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double otherShare = SEMANTIC_SIMILARITY_WEIGHT + (SYNTACTIC_SIMILARITY_WEIGHT * CHAR_EMBEDDING_WEIGHT);
+        double maxFieldScore = otherShare + levenshteinShare;
+        double required = Math.min(fieldThreshold, (SIMILARITY_THRESHOLD - otherWeight * maxFieldScore) / fieldWeight);
+        return (required - otherShare) / levenshteinShare;
     }
 
-    private int min(int a, int b, int c) {
-        return Math.min(Math.min(a, b), c);
+    /**
+     * Largest edit distance between two strings, the longer of which has maxLength
+     * characters, whose Levenshtein score still reaches minScore; -1 if none does.
+     */
+    private static int maxDistance(double minScore, int maxLength) {
+        if (minScore <= 0) {
+            return maxLength;
+        }
+        return (int) Math.floor((1.0 - minScore) * maxLength + 1e-9);
     }
 
     /**
      * Calculates the Levenshtein distance between two strings.
      */
     public int editDistance(String str1, String str2) {
-        int[][] distance = new int[str1.length() + 1][str2.length() + 1];
-
-        for (int i = 0; i <= str1.length(); i++) {
-            distance[i][0] = i;
-        }
-        for (int j = 1; j <= str2.length(); j++) {
-            distance[0][j] = j;
-        }
+        return Levenshtein.distance(str1, str2);
+    }
 
-        for (int i = 1; i <= str1.length(); i++) {
-            for (int j = 1; j <= str2.length(); j++) {
-                distance[i][j] = min(
-                        distance[i - 1][j] + 1,
-                        distance[i][j - 1] + 1,
-                        distance[i - 1][j - 1] + ((str1.charAt(i - 1) == (str2.charAt(j - 1)) ? 0 : 1))
-                );
-            }
-        }
+    /**
+     * Adds a record to the block, compares it against records from the opposing source, and identifies matches.
+     */
+    public PutResult put(Record rec, int w, int round, MatchSink sink) {
+        return put(rec, w, round, sink, null);
+    }
 
-        return distance[str1.length()][str2.length()];
+    /**
+     * Adds a record to the block under one of its several blocking keys.
+     * @param compared the seq of the records already compared with rec in other blocks during
+     * this put; they are skipped here, and the records compared here are added. May be null.
+     */
+    public PutResult put(Record rec, int w, int round, MatchSink sink, LongSet compared) {
+        return put(rec, w, round, sink, compared, null);
     }
 
     /**
-     * Adds a record to the block, compares it against records from the opposing source, and identifies matches.
+     * Adds a record to the block as above, in top-k mode when top is not null: instead of
+     * counting and reporting every matching pair, the matches are offered to top, which
+     * collects the best ones of the record across its blocks.
      */
-    public PutResult put(Record rec, int w, int round, FileWriter writer) {
+    public PutResult put(Record rec, int w, int round, MatchSink sink, LongSet compared, TopMatches top) {
         PutResult result = new PutResult();
         result.truePositives = 0;
         result.falsePositives = 0;
 
-        ArrayList<Record> comparisonList = rec.origin.equals("A") ? recordsB : recordsA;
-        ArrayList<Record> destinationList = rec.origin.equals("A") ? recordsA : recordsB;
+        boolean fromA = rec.origin.equals("A");
+        RecordStore comparisonList = fromA ? recordsB : recordsA;
+        RecordStore destinationList = fromA ? recordsA : recordsB;
+        // Referências do registro no dicionário, passadas ao destinationList no fim
+        int nameId = RecordStore.acquireName(rec);
+        int surnameId = RecordStore.acquireSurname(rec);
+        boolean stored = false;
+        try {
+            int size = comparisonList.size;
+
+            result.candidates = size;
+            if (top != null) {
+                scanTopK(rec, nameId, surnameId, comparisonList, compared, top, result);
+            } else {
+                scan(rec, nameId, surnameId, comparisonList, compared, sink, result);
+            }
+
+            // >= e não ==: um bloco restaurado com outro w pode estar acima do limite
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            while (recordsA.size + recordsB.size >= w && recordsA.size + recordsB.size > 0) {
+                result.removals++;
+                if (recordsA.size > recordsB.size) {
+                    recordsA.swapRemove(r.nextInt(recordsA.size));
+                } else {
+                    recordsB.swapRemove(r.nextInt(recordsB.size));
+                }
+            }
+            destinationList.add(rec, nameId, surnameId);
+            stored = true;
+        } finally {
+            if (!stored) {
+                RecordStore.release(nameId);
+                RecordStore.release(surnameId);
+            }
+        }
+
+        this.modCount++;
+        this.recNo++;
+        this.lastRoundUsed = round;
+        return result;
+    }
 
-        for (Record existingRecord : comparisonList) {
+    /** Compares rec with every record of the opposite side, counting and reporting each matching pair. */
+    private void scan(Record rec, int nameId, int surnameId, RecordStore comparisonList, LongSet compared,
+            MatchSink sink, PutResult result) {
+        TextFeatures nameFeatures = RecordStore.features(nameId);
+        TextFeatures surnameFeatures = RecordStore.features(surnameId);
+        int[] nameIds = comparisonList.nameIds;
+        int[] surnameIds = comparisonList.surnameIds;
+        int size = comparisonList.size;
 
-            double levenshteinNameScore = 1.0 - ((double) editDistance(existingRecord.name, rec.name) / Math.max(existingRecord.name.length(), rec.name.length()));
-            double levenshteinSurnameScore = 1.0 - ((double) editDistance(existingRecord.surname, rec.surname) / Math.max(existingRecord.surname.length(), rec.surname.length()));
+        // Scores semânticos contra todo o lado oposto de uma vez (matriz contígua)
+        double[] nameSemantic = null;
+        double[] surnameSemantic = null;
+        if (comparisonList.nameEmbeddings != null) {
+            double[][] buffers = SEMANTIC_SCORES.get();
+            if (buffers[0].length < size) {
+                buffers[0] = new double[Math.max(size, 2 * buffers[0].length)];
+                buffers[1] = new double[buffers[0].length];
+            }
+            nameSemantic = buffers[0];
+            surnameSemantic = buffers[1];
+            comparisonList.nameEmbeddings.dot(nameFeatures.embedding, nameSemantic);
+            comparisonList.surnameEmbeddings.dot(surnameFeatures.embedding, surnameSemantic);
+        }
+
+        for (int k = 0; k < size; k++) {
+            if (compared != null && !compared.add(comparisonList.seqs[k])) continue;
+            result.comparisons++;
+
+            TextFeatures existingName = RecordStore.features(nameIds[k]);
+            TextFeatures existingSurname = RecordStore.features(surnameIds[k]);
+
+            // Distâncias limitadas: pares que não podem atingir os limiares são descartados cedo
+            // (strings iguais têm o mesmo id no dicionário e distância 0; as outras vêm da memo)
+            int nameLength = Math.max(existingName.text.length(), rec.name.length());
+            int maxNameDistance = maxDistance(NAME_MIN_LEVENSHTEIN_SCORE, nameLength);
+            if (maxNameDistance < 0) continue;
+            int nameDistance = nameIds[k] == nameId ? 0
+                    : PairScoreCache.NAMES.distance(nameIds[k], existingName.text, nameId, rec.name, maxNameDistance);
+            if (nameDistance > maxNameDistance) continue;
+
+            int surnameLength = Math.max(existingSurname.text.length(), rec.surname.length());
+            int maxSurnameDistance = maxDistance(SURNAME_MIN_LEVENSHTEIN_SCORE, surnameLength);
+            if (maxSurnameDistance < 0) continue;
+            int surnameDistance = surnameIds[k] == surnameId ? 0
+                    : PairScoreCache.SURNAMES.distance(surnameIds[k], existingSurname.text, surnameId, rec.surname, maxSurnameDistance);
+            if (surnameDistance > maxSurnameDistance) continue;
+
+            double levenshteinNameScore = 1.0 - ((double) nameDistance / nameLength);
+            double levenshteinSurnameScore = 1.0 - ((double) surnameDistance / surnameLength);
             
-            // Obtenha todos os scores (agora só usamos semantic e charEmbedding)
-            SimilarityService.SimilarityScores nameScores = SimilarityService.getScores(existingRecord.name, rec.name, this.currentConfig);
-            SimilarityService.SimilarityScores surnameScores = SimilarityService.getScores(existingRecord.surname, rec.surname, this.currentConfig);
+            double charEmbeddingNameScore = SimilarityService.charJaccard(existingName.charMask, nameFeatures.charMask);
+            double charEmbeddingSurnameScore = SimilarityService.charJaccard(existingSurname.charMask, surnameFeatures.charMask);
+            double semanticNameScore = nameSemantic != null ? nameSemantic[k] : 0.0;
+            double semanticSurnameScore = surnameSemantic != null ? surnameSemantic[k] : 0.0;
 
             double combinedSyntacticNameScore = (levenshteinNameScore  * LEVENSHTEIN_WEIGHT) +
-                                                (nameScores.charEmbeddingScore * CHAR_EMBEDDING_WEIGHT);
+                                                (charEmbeddingNameScore * CHAR_EMBEDDING_WEIGHT);
 
             double combinedSyntacticSurnameScore = (levenshteinSurnameScore * LEVENSHTEIN_WEIGHT) +
-                                                    (surnameScores.charEmbeddingScore * CHAR_EMBEDDING_WEIGHT);
+                                                    (charEmbeddingSurnameScore * CHAR_EMBEDDING_WEIGHT);
 
             // Pontuação final (semântica + sintática)
-            double finalNameScore = (nameScores.semanticScore * SEMANTIC_SIMILARITY_WEIGHT) +
+            double finalNameScore = (semanticNameScore * SEMANTIC_SIMILARITY_WEIGHT) +
                                     (combinedSyntacticNameScore * SYNTACTIC_SIMILARITY_WEIGHT);
             
-            double finalSurnameScore = (surnameScores.semanticScore * SEMANTIC_SIMILARITY_WEIGHT) +
+            double finalSurnameScore = (semanticSurnameScore * SEMANTIC_SIMILARITY_WEIGHT) +
                                     (combinedSyntacticSurnameScore * SYNTACTIC_SIMILARITY_WEIGHT);
 
             double finalScore = (finalNameScore * NAME_WEIGHT) + (finalSurnameScore * SURNAME_WEIGHT);
 
             boolean originalLogicMatch = (finalNameScore >= NAME_SIMILARITY_THRESHOLD) && (finalSurnameScore >= SURNAME_SIMILARITY_THRESHOLD);
             if (originalLogicMatch || finalScore >= SIMILARITY_THRESHOLD) {
-                if (rec.getIdNo().equals(existingRecord.getIdNo())) {
+                if (comparisonList.sameEntity(k, rec)) {
                     result.truePositives++;
-                    String s = String.format("MATCH (Score: %.2f): %s (%s, %s) <-> %s (%s, %s)",
-                            finalScore, existingRecord.id, existingRecord.surname, existingRecord.name, rec.id, rec.surname, rec.name);
-                    try {
-                        writer.write(s + "\r\n");
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    }
+                    sink.accept(comparisonList.record(k), rec, finalScore);
                 } else {
                     result.falsePositives++;
                 }
             }
         }
+    }
+
+    /**
+     * Top-k comparison: offers the matches of rec to top, filtering the candidates from
+     * upper bounds of their score, cheapest first, so that most of them are discarded
+     * before the edit distances and the semantic scores are computed.
+     *
+     * A pair's edit distance is at least the difference of the lengths, and at least the
+     * number of distinct characters of either string missing from the other (each one
+     * needs its own edit); its Jaccard score is exact from the char masks, and its cosine
+     * is at most 1. A candidate is discarded as soon as its bounded score can satisfy
+     * neither branch of the match rule or cannot beat the k-th best score found so far.
+     */
+    private void scanTopK(Record rec, int nameId, int surnameId, RecordStore comparisonList, LongSet compared,
+            TopMatches top, PutResult result) {
+        TextFeatures nameFeatures = RecordStore.features(nameId);
+        TextFeatures surnameFeatures = RecordStore.features(surnameId);
+        int nameMask = nameFeatures.charMask;
+        int surnameMask = surnameFeatures.charMask;
+        int[] nameIds = comparisonList.nameIds;
+        int[] surnameIds = comparisonList.surnameIds;
+        boolean semantic = comparisonList.nameEmbeddings != null;
+        double semanticBound = semantic ? 1.0 : 0.0;
+
+        for (int k = 0; k < comparisonList.size; k++) {
+            if (compared != null && !compared.add(comparisonList.seqs[k])) continue;
+            result.comparisons++;
+
+            TextFeatures existingName = RecordStore.features(nameIds[k]);
+            TextFeatures existingSurname = RecordStore.features(surnameIds[k]);
+            int nameLength = Math.max(existingName.text.length(), rec.name.length());
+            int surnameLength = Math.max(existingSurname.text.length(), rec.surname.length());
+            double jaccardName = SimilarityService.charJaccard(existingName.charMask, nameMask);
+            double jaccardSurname = SimilarityService.charJaccard(existingSurname.charMask, surnameMask);
+
+            // 1. Limites baratos: comprimentos e máscaras de caracteres
+            int nameLowerBound = nameIds[k] == nameId ? 0 : distanceLowerBound(existingName, nameFeatures, rec.name);
+            int surnameLowerBound = surnameIds[k] == surnameId ? 0 : distanceLowerBound(existingSurname, surnameFeatures, rec.surname);
+            double nameBound = fieldScore(semanticBound, levenshteinScore(nameLowerBound, nameLength), jaccardName);
+            double surnameBound = fieldScore(semanticBound, levenshteinScore(surnameLowerBound, surnameLength), jaccardSurname);
+            if (!canMatch(nameBound, surnameBound, top)) {
+                result.pruned++;
+                continue;
+            }
+
+            // 2. Distâncias de edição exatas (limitadas), ainda com o cosseno no máximo
+            int maxNameDistance = maxDistance(NAME_MIN_LEVENSHTEIN_SCORE, nameLength);
+            int maxSurnameDistance = maxDistance(SURNAME_MIN_LEVENSHTEIN_SCORE, surnameLength);
+            if (maxNameDistance < 0 || maxSurnameDistance < 0) {
+                result.pruned++;
+                continue;
+            }
+            int nameDistance = nameIds[k] == nameId ? 0
+                    : PairScoreCache.NAMES.distance(nameIds[k], existingName.text, nameId, rec.name, maxNameDistance);
+            if (nameDistance > maxNameDistance) continue;
+            int surnameDistance = surnameIds[k] == surnameId ? 0
+                    : PairScoreCache.SURNAMES.distance(surnameIds[k], existingSurname.text, surnameId, rec.surname, maxSurnameDistance);
+            if (surnameDistance > maxSurnameDistance) continue;
+            double levenshteinNameScore = levenshteinScore(nameDistance, nameLength);
+            double levenshteinSurnameScore = levenshteinScore(surnameDistance, surnameLength);
+            if (semantic && !canMatch(fieldScore(1.0, levenshteinNameScore, jaccardName),
+                    fieldScore(1.0, levenshteinSurnameScore, jaccardSurname), top)) {
+                result.pruned++;
+                continue;
+            }
+
+            // 3. Scores semânticos só para os sobreviventes
+            double semanticNameScore = semantic ? comparisonList.nameEmbeddings.dot(k, nameFeatures.embedding) : 0.0;
+            double semanticSurnameScore = semantic ? comparisonList.surnameEmbeddings.dot(k, surnameFeatures.embedding) : 0.0;
+            double finalNameScore = fieldScore(semanticNameScore, levenshteinNameScore, jaccardName);
+            double finalSurnameScore = fieldScore(semanticSurnameScore, levenshteinSurnameScore, jaccardSurname);
+            double finalScore = (finalNameScore * NAME_WEIGHT) + (finalSurnameScore * SURNAME_WEIGHT);
 
-        if (recordsA.size() + recordsB.size() == w) {
-            Random r = new Random();
-            if (recordsA.size() > recordsB.size()) {
-                recordsA.remove(r.nextInt(recordsA.size()));
-            } else if (!recordsB.isEmpty()) { 
-                recordsB.remove(r.nextInt(recordsB.size()));
+            boolean originalLogicMatch = (finalNameScore >= NAME_SIMILARITY_THRESHOLD) && (finalSurnameScore >= SURNAME_SIMILARITY_THRESHOLD);
+            if ((originalLogicMatch || finalScore >= SIMILARITY_THRESHOLD) && top.accepts(finalScore)) {
+                top.offer(comparisonList.record(k), finalScore, comparisonList.sameEntity(k, rec));
             }
         }
-        destinationList.add(rec);
+    }
 
-        this.recNo++;
-        this.lastRoundUsed = round;
-        return result;
+    /** Lower bound of the edit distance between a stored text and the incoming one, see scanTopK. */
+    private static int distanceLowerBound(TextFeatures existing, TextFeatures incoming, String incomingText) {
+        int lengthBound = Math.abs(existing.text.length() - incomingText.length());
+        int missing = Math.max(Integer.bitCount(existing.charMask & ~incoming.charMask),
+                Integer.bitCount(incoming.charMask & ~existing.charMask));
+        return Math.max(lengthBound, missing);
+    }
+
+    private static double levenshteinScore(int distance, int maxLength) {
+        return 1.0 - ((double) distance / maxLength);
+    }
+
+    /** Score of one field, as in scan. */
+    private double fieldScore(double semanticScore, double levenshteinScore, double charEmbeddingScore) {
+        return (semanticScore * SEMANTIC_SIMILARITY_WEIGHT)
+                + ((levenshteinScore * LEVENSHTEIN_WEIGHT) + (charEmbeddingScore * CHAR_EMBEDDING_WEIGHT)) * SYNTACTIC_SIMILARITY_WEIGHT;
+    }
+
+    /** Whether a pair whose field scores are at most these can match and enter top. */
+    private boolean canMatch(double nameBound, double surnameBound, TopMatches top) {
+        double finalBound = (nameBound * NAME_WEIGHT) + (surnameBound * SURNAME_WEIGHT);
+        boolean ruleBound = (nameBound >= NAME_SIMILARITY_THRESHOLD && surnameBound >= SURNAME_SIMILARITY_THRESHOLD)
+                || finalBound >= SIMILARITY_THRESHOLD;
+        return ruleBound && top.accepts(finalBound);
+    }
+
+    /**
+     * Appends a stored record read from a checkpoint, without comparing it.
+     */
+    void restoreRecord(Record rec) {
+        (rec.origin.equals("A") ? recordsA : recordsB).add(rec);
+        this.modCount++;
+    }
+
+    /** Removes all the records, giving back their references to the StringDictionary. */
+    void release() {
+        recordsA.clear();
+        recordsB.clear();
+        this.modCount++;
     }
 
     public void setDegree(int avg, int currentRound) {
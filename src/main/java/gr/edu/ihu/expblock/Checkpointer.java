@@ -0,0 +1,472 @@
+// Checkpointer.java
+package gr.edu.ihu.expblock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * Periodic snapshots of an ExpBlock, so that a restarted stream resumes with the blocking
+ * structure it had instead of replaying its input to warm it up again.
+ *
+ * checkpoint runs on the thread driving the engine, between two puts. It copies the
+ * engine counters, the eviction state and the block headers, and the record lists
+ * of only the blocks modified since the previous checkpoint. A background thread then
+ * encodes those blocks, reuses the bytes kept from the previous checkpoint for the others,
+ * and writes the snapshot to a temporary file that atomically replaces the previous one.
+ *
+ * Layout (DataOutputStream, big-endian):
+ *   header:  MAGIC, VERSION, the stream offset, the engine parameters and counters, the
+ *            ExperimentConfig, the MinHash parameters, the eviction generator state and
+ *            round in progress, the free-slot stack and the live-slot order;
+ *   blocks:  their number, then per block its slot, key, recNo, lastRoundUsed, degree,
+ *            falsePositives, and the length and bytes of its records section;
+ *   records: the number of records, then each one's id, name, surname, town, poBox
+ *            (null since blocks keep only the fields used for matching, see RecordStore),
+ *            origin and blocking keys;
+ *   admission: when the engine has an AdmissionFilter (flagged in the header, after
+ *            topK), its minFrequency, counters, FrequencySketch and probation ring, the
+ *            ring as its size, next slot, and the slot, key and record of each entry.
+ *
+ * The cold tier and the semantic blocker are not stored (see ColdTier, SemanticBlocker):
+ * set them again on the restored engine.
+ * Features and embeddings are not stored; restore recomputes them with the model loaded
+ * at that time. A record held by several blocks (LSH bands) is restored as one object;
+ * records are told apart by origin and id, as both sources may use the same ids (IMDB).
+ */
+public class Checkpointer implements AutoCloseable {
+
+    public static final int MAGIC = 0x4558434B; // "EXCK"
+    public static final int VERSION = 3;
+
+    /** An engine read back from a snapshot, with the stream position it corresponds to. */
+    public static class Restored {
+        public final ExpBlock engine;
+        public final long streamOffset;
+
+        Restored(ExpBlock engine, long streamOffset) {
+            this.engine = engine;
+            this.streamOffset = streamOffset;
+        }
+    }
+
+    /** A block as captured; records are null when unchanged since the previous checkpoint. */
+    private static final class BlockState {
+        final Block block;
+        final int slot;
+        final String key;
+        final int recNo;
+        final int lastRoundUsed;
+        final int degree;
+        final int falsePositives;
+        final Record[] records;
+
+        BlockState(Block block, int slot, boolean modified) {
+            this.block = block;
+            this.slot = slot;
+            this.key = block.key;
+            this.recNo = block.recNo;
+            this.lastRoundUsed = block.lastRoundUsed;
+            this.degree = block.degree;
+            this.falsePositives = block.falsePositives;
+            if (modified) {
+                records = new Record[block.recordsA.size + block.recordsB.size];
+                int n = 0;
+                for (int i = 0; i < block.recordsA.size; i++) records[n++] = block.recordsA.record(i);
+                for (int i = 0; i < block.recordsB.size; i++) records[n++] = block.recordsB.record(i);
+            } else {
+                records = null;
+            }
+        }
+    }
+
+    private final File file;
+    private final ExecutorService writer;
+    private Future<File> pending;
+
+    // Set by the writer thread once a capture is encoded, read by the capturing thread after
+    // awaiting it: modCount of each block at its last encoded capture, and its records section
+    private IdentityHashMap<Block, Integer> captured = new IdentityHashMap<>();
+    private IdentityHashMap<Block, byte[]> sections = new IdentityHashMap<>();
+
+    /**
+     * @param file the snapshot file, replaced by every checkpoint.
+     */
+    public Checkpointer(File file) {
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "expblock-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Captures the state of the engine and writes it in the background. If the previous
+     * checkpoint is still being written, waits for it first; if it failed, its exception is
+     * thrown here, once, and the next call captures again every block it did not encode.
+     * @param streamOffset the position in the input stream of the next record to put,
+     * returned by restore.
+     * @return completes with the snapshot file once it is durably written.
+     */
+    public Future<File> checkpoint(ExpBlock engine, long streamOffset) throws IOException {
+        Future<File> last = pending;
+        pending = null;
+        await(last);
+
+        byte[] header = encodeHeader(engine, streamOffset);
+        // O filtro muda a cada put: é codificado aqui mesmo, na thread do engine
+        byte[] admission = engine.admission != null ? encodeAdmission(engine.admission) : new byte[0];
+        List<BlockState> blocks = new ArrayList<>(engine.occupied);
+        IdentityHashMap<Block, Integer> modCounts = new IdentityHashMap<>(engine.occupied * 2);
+        for (int slot = 0; slot < engine.arr.length; slot++) {
+            Block block = engine.arr[slot];
+            if (block == null) continue;
+            Integer previous = captured.get(block);
+            blocks.add(new BlockState(block, slot, previous == null || previous != block.modCount));
+            modCounts.put(block, block.modCount);
+        }
+
+        pending = writer.submit(() -> write(header, blocks, modCounts, admission));
+        return pending;
+    }
+
+    /** Waits for the last checkpoint to be written and stops the writer thread. */
+    @Override
+    public void close() throws IOException {
+        try {
+            await(pending);
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private static void await(Future<File> future) throws IOException {
+        if (future == null) return;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing a checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed writing a checkpoint", e.getCause());
+        }
+    }
+
+    private static byte[] encodeHeader(ExpBlock e, long streamOffset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + 4 * e.b);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(streamOffset);
+
+        out.writeDouble(e.epsilon);
+        out.writeDouble(e.delta);
+        out.writeDouble(e.q);
+        out.writeDouble(e.xi);
+        out.writeInt(e.w);
+        out.writeInt(e.b);
+        out.writeInt(e.globalRecNo);
+        out.writeInt(e.occupied);
+        out.writeInt(e.currentRound);
+        out.writeInt(e.matchingPairsNo);
+        out.writeInt(e.falsePositivesNo);
+        out.writeInt(e.trulyMatchingPairsNo);
+
+        ExperimentConfig c = e.getConfig();
+        out.writeDouble(c.levenshteinWeight);
+        out.writeDouble(c.charEmbeddingWeight);
+        out.writeDouble(c.soundexWeight);
+        out.writeDouble(c.surnameWeight);
+        out.writeDouble(c.nameWeight);
+        out.writeDouble(c.semanticSimilarityWeight);
+        out.writeDouble(c.syntacticSimilarityWeight);
+        out.writeDouble(c.similarityThreshold);
+        out.writeDouble(c.nameSimilarityThreshold);
+        out.writeDouble(c.surnameSimilarityThreshold);
+
+        out.writeInt(e.minHash.bands);
+        out.writeInt(e.minHash.rows);
+        out.writeInt(e.minHash.q);
+
+        out.writeLong(e.rngState);
+        out.writeInt(e.evictionStepsPerPut);
+        out.writeInt(e.evictionRemaining);
+        out.writeInt(e.evictionAvg);
+        out.writeInt(e.evictionEvicted);
+        out.writeInt(e.evictionScanned);
+        writeInts(out, e.freeSlots());
+        writeInts(out, e.liveSlots());
+        out.writeInt(e.topK);
+        out.writeBoolean(e.admission != null);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeAdmission(AdmissionFilter f) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(f.minFrequency);
+        out.writeLong(f.rejected);
+        out.writeLong(f.probationHits);
+        f.sketch.writeTo(out);
+        out.writeInt(f.probationKeys.length);
+        out.writeInt(f.probationNext);
+        int held = 0;
+        for (Record rec : f.probationRecords) {
+            if (rec != null) held++;
+        }
+        out.writeInt(held);
+        for (int slot = 0; slot < f.probationKeys.length; slot++) {
+            if (f.probationRecords[slot] != null) {
+                out.writeInt(slot);
+                out.writeUTF(f.probationKeys[slot]);
+                out.write(encodeRecords(new Record[]{f.probationRecords[slot]}));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private File write(byte[] header, List<BlockState> blocks, IdentityHashMap<Block, Integer> modCounts,
+            byte[] admission) throws IOException {
+        // Codifica tudo antes: se falhar, captured e sections continuam os da captura anterior
+        IdentityHashMap<Block, byte[]> encoded = new IdentityHashMap<>(blocks.size() * 2);
+        for (BlockState state : blocks) {
+            encoded.put(state.block, state.records != null ? encodeRecords(state.records) : sections.get(state.block));
+        }
+        sections = encoded;
+        captured = modCounts;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.write(header);
+            out.writeInt(blocks.size());
+            for (BlockState state : blocks) {
+                out.writeInt(state.slot);
+                out.writeUTF(state.key);
+                out.writeInt(state.recNo);
+                out.writeInt(state.lastRoundUsed);
+                out.writeInt(state.degree);
+                out.writeInt(state.falsePositives);
+                byte[] section = encoded.get(state.block);
+                out.writeInt(section.length);
+                out.write(section);
+            }
+            out.write(admission);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private static byte[] encodeRecords(Record[] records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 48 * records.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(records.length);
+        for (Record rec : records) {
+            writeString(out, rec.id);
+            writeString(out, rec.name);
+            writeString(out, rec.surname);
+            writeString(out, rec.town);
+            writeString(out, rec.poBox);
+            writeString(out, rec.origin);
+            out.writeInt(rec.bKeys.length);
+            for (String key : rec.bKeys) {
+                out.writeUTF(key);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a snapshot back into a new engine, which resumes at the round, counters and
+     * eviction cursor it had when the snapshot was taken.
+     * @param sink receives the matches of the restored engine; null opens results.txt in
+     * append mode, so the matches of the run being resumed are kept.
+     */
+    public static Restored restore(File file, MatchSink sink) throws IOException {
+        return restore(file, sink, new File("results.txt"));
+    }
+
+    /** As above, appending to matches instead of results.txt when sink is null. */
+    static Restored restore(File file, MatchSink sink, File matches) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an ExpBlock checkpoint: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+            long streamOffset = in.readLong();
+
+            double epsilon = in.readDouble();
+            double delta = in.readDouble();
+            double q = in.readDouble();
+            double xi = in.readDouble();
+            int w = in.readInt();
+            int b = in.readInt();
+            int globalRecNo = in.readInt();
+            int occupied = in.readInt();
+            int currentRound = in.readInt();
+            int matchingPairsNo = in.readInt();
+            int falsePositivesNo = in.readInt();
+            int trulyMatchingPairsNo = in.readInt();
+            ExperimentConfig config = new ExperimentConfig(in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readDouble());
+            int bands = in.readInt();
+            int rows = in.readInt();
+            int minHashQ = in.readInt();
+            long rngState = in.readLong();
+            int evictionStepsPerPut = in.readInt();
+            int evictionRemaining = in.readInt();
+            int evictionAvg = in.readInt();
+            int evictionEvicted = in.readInt();
+            int evictionScanned = in.readInt();
+            int[] free = readInts(in);
+            int[] live = readInts(in);
+            int topK = in.readInt();
+            boolean hasAdmission = in.readBoolean();
+
+            boolean ownsSink = sink == null;
+            if (ownsSink) {
+                sink = new AsyncMatchSink(matches, AsyncMatchSink.Format.TEXT, AsyncMatchSink.DEFAULT_CAPACITY, true);
+            }
+            ExpBlock e = new ExpBlock(epsilon, q, b, config, sink);
+            e.ownsSink = ownsSink;
+            e.delta = delta;
+            e.xi = xi;
+            e.w = w;
+            e.globalRecNo = globalRecNo;
+            e.occupied = occupied;
+            e.currentRound = currentRound;
+            e.matchingPairsNo = matchingPairsNo;
+            e.falsePositivesNo = falsePositivesNo;
+            e.trulyMatchingPairsNo = trulyMatchingPairsNo;
+            e.minHash = rows > 0 ? new MinHash(bands, rows, minHashQ) : new MinHash();
+            e.rngState = rngState;
+            e.evictionStepsPerPut = evictionStepsPerPut;
+            e.evictionRemaining = evictionRemaining;
+            e.evictionAvg = evictionAvg;
+            e.evictionEvicted = evictionEvicted;
+            e.evictionScanned = evictionScanned;
+            e.topK = topK;
+
+            Block[] blocks = new Block[b];
+            // Origem + id: as duas fontes podem usar os mesmos ids
+            HashMap<String, Record> records = new HashMap<>();
+            int blockNo = in.readInt();
+            for (int i = 0; i < blockNo; i++) {
+                int slot = in.readInt();
+                Block block = new Block(in.readUTF(), q, config);
+                block.recNo = in.readInt();
+                block.lastRoundUsed = in.readInt();
+                block.degree = in.readInt();
+                block.falsePositives = in.readInt();
+                in.readInt(); // section length
+                int recordNo = in.readInt();
+                for (int k = 0; k < recordNo; k++) {
+                    Record rec = readRecord(in);
+                    Record known = records.putIfAbsent(identity(rec), rec);
+                    block.restoreRecord(known != null ? known : rec);
+                }
+                blocks[slot] = block;
+            }
+            e.restoreSlots(blocks, free, live);
+            if (hasAdmission) {
+                e.admission = readAdmission(in, records);
+            }
+            return new Restored(e, streamOffset);
+        }
+    }
+
+    /** Reads the admission section; probation records also held by a block are shared. */
+    private static AdmissionFilter readAdmission(DataInput in, HashMap<String, Record> records) throws IOException {
+        int minFrequency = in.readInt();
+        long rejected = in.readLong();
+        long probationHits = in.readLong();
+        FrequencySketch sketch = FrequencySketch.readFrom(in);
+        AdmissionFilter f = new AdmissionFilter(sketch, in.readInt());
+        f.minFrequency = minFrequency;
+        f.rejected = rejected;
+        f.probationHits = probationHits;
+        f.probationNext = in.readInt();
+        int held = in.readInt();
+        for (int i = 0; i < held; i++) {
+            int slot = in.readInt();
+            String key = in.readUTF();
+            in.readInt(); // um registro
+            Record rec = readRecord(in);
+            Record known = records.putIfAbsent(identity(rec), rec);
+            f.hold(slot, key, known != null ? known : rec);
+        }
+        return f;
+    }
+
+    private static String identity(Record rec) {
+        return rec.origin + "/" + rec.id;
+    }
+
+    private static Record readRecord(DataInput in) throws IOException {
+        Record rec = new Record();
+        rec.id = readString(in);
+        rec.name = readString(in);
+        rec.surname = readString(in);
+        rec.town = readString(in);
+        rec.poBox = readString(in);
+        rec.origin = readString(in);
+        String[] keys = new String[in.readInt()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = in.readUTF();
+        }
+        rec.bKeys = keys;
+        rec.bKey = keys.length > 0 ? keys[0] : "";
+        rec.computeFeatures();
+        return rec;
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int v : values) out.writeInt(v);
+    }
+
+    private static int[] readInts(DataInput in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) values[i] = in.readInt();
+        return values;
+    }
+}
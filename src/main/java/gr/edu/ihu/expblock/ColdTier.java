@@ -0,0 +1,311 @@
+// ColdTier.java
+package gr.edu.ihu.expblock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * Second tier of blocks, on disk: blocks evicted from an ExpBlock are appended here
+ * instead of being discarded, and a later put with the same key promotes the block back
+ * with its records (see ExpBlock.coldTier). The heap still holds at most b blocks; the
+ * tier only keeps an index from key to the location of each block.
+ *
+ * Blocks are stored compactly, their records as StringDictionary ids, in segment files
+ * of a fixed size, memory-mapped once. The number of segments is set by the disk budget.
+ * Appends go to the active segment; a promoted or re-evicted block leaves a dead entry
+ * behind. After each segment roll a background thread compacts the segments with less
+ * than half of their bytes alive, moving those entries to the active segment so that
+ * the segment can be reused. When no segment is free, the one with the fewest live
+ * bytes is reclaimed at once and its blocks are dropped, the oldest first in practice.
+ * A stored block keeps the dictionary references of its records until it is promoted
+ * or dropped.
+ *
+ * The tier belongs to the process that created it: dictionary ids are not stable across
+ * runs, so the files are scratch space, and checkpoints do not include the tier.
+ * All methods are synchronized; an ExpBlock may share its tier with other engines whose
+ * keys do not overlap, e.g. the shards of a ShardedExpBlock.
+ */
+public class ColdTier implements AutoCloseable {
+
+    private static final double COMPACT_RATIO = 0.5;
+
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        int writePosition = 0;
+        long liveBytes = 0;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    // Location of a block in the tier
+    private static final class Entry {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Entry(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final File directory;
+    private final int segmentBytes;
+    private final Segment[] segments;
+    private final ArrayDeque<Segment> free = new ArrayDeque<>();
+    private final HashMap<String, Entry> index = new HashMap<>();
+    private Segment active;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "expblock-cold-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    long spills = 0;
+    long promotions = 0;
+    // Blocks lost because the disk budget was exhausted
+    long dropped = 0;
+    long compactedBlocks = 0;
+
+    /**
+     * @param directory where the segment files are created.
+     * @param maxBytes the disk budget, split into segments of segmentBytes.
+     */
+    public ColdTier(File directory, long maxBytes, int segmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        int count = (int) Math.max(2, maxBytes / segmentBytes);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            File file = segmentFile(i);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(segmentBytes);
+                segments[i] = new Segment(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            }
+            file.deleteOnExit();
+            free.add(segments[i]);
+        }
+        this.active = free.poll();
+    }
+
+    public ColdTier(File directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, 64 << 20);
+    }
+
+    private File segmentFile(int i) {
+        return new File(directory, "cold-" + i + ".seg");
+    }
+
+    /** Appends an evicted block, replacing any older copy with the same key. */
+    public synchronized void put(Block block) throws IOException {
+        bytes.reset();
+        out.writeUTF(block.key);
+        out.writeInt(block.recNo);
+        out.writeInt(block.lastRoundUsed);
+        out.writeInt(block.degree);
+        out.writeInt(block.falsePositives);
+        block.recordsA.writeTo(out);
+        block.recordsB.writeTo(out);
+        out.flush();
+        if (bytes.size() > segmentBytes) {
+            // Bloco maior que um segmento: não cabe no tier
+            block.release();
+            dropped++;
+            return;
+        }
+        discard(index.remove(block.key));
+        index.put(block.key, append(bytes.toByteArray(), bytes.size()));
+        spills++;
+    }
+
+    /**
+     * Removes the block with the given key from the tier.
+     * @return the block with its records, or null if the tier does not hold it.
+     */
+    public synchronized Block take(String key, double q, ExperimentConfig config) throws IOException {
+        Entry entry = index.remove(key);
+        if (entry == null) return null;
+        release(entry);
+        byte[] data = read(entry);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Block block = new Block(in.readUTF(), q, config);
+        block.recNo = in.readInt();
+        block.lastRoundUsed = in.readInt();
+        block.degree = in.readInt();
+        block.falsePositives = in.readInt();
+        block.recordsA.readFrom(in);
+        block.recordsB.readFrom(in);
+        promotions++;
+        return block;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private byte[] read(Entry entry) {
+        byte[] data = new byte[entry.length];
+        ByteBuffer view = entry.segment.buffer.duplicate();
+        view.position(entry.offset);
+        view.get(data);
+        return data;
+    }
+
+    private void release(Entry entry) {
+        if (entry != null) {
+            entry.segment.liveBytes -= entry.length;
+        }
+    }
+
+    /**
+     * Releases a copy that will not be taken back, giving back the StringDictionary
+     * references of its records (see RecordStore.writeTo).
+     */
+    private void discard(Entry entry) {
+        if (entry == null) return;
+        release(entry);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(entry)));
+        try {
+            in.readUTF();
+            in.skipBytes(4 * Integer.BYTES);
+            RecordStore.releaseSerialized(in);
+            RecordStore.releaseSerialized(in);
+        } catch (IOException e) {
+            // Lido da memória: não acontece
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Entry append(byte[] data, int length) {
+        if (active.writePosition + length > segmentBytes) {
+            roll();
+        }
+        ByteBuffer view = active.buffer.duplicate();
+        view.position(active.writePosition);
+        view.put(data, 0, length);
+        Entry entry = new Entry(active, active.writePosition, length);
+        active.writePosition += length;
+        active.liveBytes += length;
+        return entry;
+    }
+
+    /** Moves appends to a free segment, reclaiming one if none is free. */
+    private void roll() {
+        Segment next = free.poll();
+        if (next == null) {
+            next = reclaim();
+        }
+        active = next;
+        compactor.execute(this::compact);
+    }
+
+    /** Empties the non-active segment with the fewest live bytes, dropping its blocks. */
+    private Segment reclaim() {
+        Segment victim = null;
+        for (Segment s : segments) {
+            if (s != active && (victim == null || s.liveBytes < victim.liveBytes)) {
+                victim = s;
+            }
+        }
+        for (Iterator<Entry> it = index.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.segment == victim) {
+                it.remove();
+                discard(entry);
+                dropped++;
+            }
+        }
+        victim.writePosition = 0;
+        victim.liveBytes = 0;
+        return victim;
+    }
+
+    /**
+     * Background compaction: moves the live entries of sparse segments to the active one
+     * and frees them. Runs one segment at a time under the lock, and gives up when the
+     * active segment has no room left for them.
+     */
+    private void compact() {
+        while (true) {
+            synchronized (this) {
+                Segment victim = null;
+                for (Segment s : segments) {
+                    if (s != active && s.writePosition > 0 && !free.contains(s)
+                            && s.liveBytes < COMPACT_RATIO * s.writePosition
+                            && (victim == null || s.liveBytes < victim.liveBytes)) {
+                        victim = s;
+                    }
+                }
+                if (victim == null || active.writePosition + victim.liveBytes > segmentBytes) {
+                    return;
+                }
+                for (Map.Entry<String, Entry> e : index.entrySet()) {
+                    Entry entry = e.getValue();
+                    if (entry.segment == victim) {
+                        e.setValue(append(read(entry), entry.length));
+                        compactedBlocks++;
+                    }
+                }
+                victim.writePosition = 0;
+                victim.liveBytes = 0;
+                free.add(victim);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ColdTier{blocks=%d, spills=%d, promotions=%d, dropped=%d, compacted=%d, segments=%d/%d free}",
+                index.size(), spills, promotions, dropped, compactedBlocks, free.size(), segments.length);
+    }
+
+    /**
+     * Stops the compaction, drops the blocks held and deletes the segment files; the
+     * mappings go with the GC.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Entry entry : index.values()) {
+                discard(entry);
+            }
+            index.clear();
+            for (int i = 0; i < segments.length; i++) {
+                // No Windows o arquivo mapeado só pode ser apagado depois do unmap (deleteOnExit)
+                segmentFile(i).delete();
+            }
+        }
+    }
+}
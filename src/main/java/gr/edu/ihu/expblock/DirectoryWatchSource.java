@@ -0,0 +1,131 @@
+// DirectoryWatchSource.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads every file of a directory whose name matches a glob: first the files already
+ * there, in name order, then each new one as it appears. Files are read whole with a
+ * MappedFileSource, one at a time, so they must be complete when they appear: write
+ * them elsewhere and move them into the directory. The source never finishes until it
+ * is closed.
+ *
+ * Only the paths queued or being read are remembered, so memory does not grow with the
+ * number of files read; a file created again under a name already read is read again.
+ * When watch events are lost (OVERFLOW) the directory is listed anew, and that listing
+ * skips the names up to the last one read, in name order: a file that arrived during the
+ * overflow under an earlier name is missed.
+ */
+public class DirectoryWatchSource implements RecordSource {
+
+    private final Path directory;
+    private final PathMatcher matcher;
+    private final SchemaMapping mapping;
+    private final WatchService watcher;
+    private final ArrayDeque<Path> pending = new ArrayDeque<>();
+    // Arquivos na fila ou sendo lidos
+    private final HashSet<Path> queued = new HashSet<>();
+    private MappedFileSource current;
+    private Path currentPath;
+    // Maior nome já lido, para as relistagens depois de um OVERFLOW
+    private Path lastRead;
+    private volatile boolean closed = false;
+
+    /** @param glob the names to read, e.g. "*.txt". */
+    public DirectoryWatchSource(File directory, String glob, SchemaMapping mapping) throws IOException {
+        this.directory = directory.toPath();
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.mapping = mapping;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        // Registra antes de listar, para não perder arquivos criados entre as duas coisas
+        this.directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        File[] existing = directory.listFiles();
+        List<Path> names = new ArrayList<>();
+        if (existing != null) {
+            for (File f : existing) names.add(f.toPath());
+        }
+        enqueue(names, false);
+    }
+
+    /** @param relisting whether paths is a new listing of the directory, not new files. */
+    private void enqueue(List<Path> paths, boolean relisting) {
+        Collections.sort(paths);
+        for (Path path : paths) {
+            if (relisting && lastRead != null && path.compareTo(lastRead) <= 0) continue;
+            if (matcher.matches(path.getFileName()) && path.toFile().isFile() && queued.add(path)) {
+                pending.add(path);
+            }
+        }
+    }
+
+    @Override
+    public Record poll(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (!closed) {
+            if (current != null) {
+                Record rec = current.poll(0);
+                if (rec != null) return rec;
+                current.close();
+                current = null;
+                queued.remove(currentPath);
+                if (lastRead == null || currentPath.compareTo(lastRead) > 0) lastRead = currentPath;
+            }
+            if (!pending.isEmpty()) {
+                currentPath = pending.poll();
+                current = new MappedFileSource(currentPath.toFile(), mapping);
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            WatchKey key = remaining > 0 ? watcher.poll(remaining, TimeUnit.NANOSECONDS) : watcher.poll();
+            if (key == null) return null;
+            List<Path> created = new ArrayList<>();
+            boolean relisting = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Eventos perdidos: relista o diretório
+                    File[] all = directory.toFile().listFiles();
+                    if (all != null) {
+                        for (File f : all) created.add(f.toPath());
+                    }
+                    relisting = true;
+                } else {
+                    created.add(directory.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+            enqueue(created, relisting);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (current != null) current.close();
+        watcher.close();
+    }
+
+    @Override
+    public String toString() {
+        return "dir:" + directory;
+    }
+}
@@ -0,0 +1,176 @@
+// EmbeddingCache.java
+package gr.edu.ihu.expblock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Concurrent word-vector cache bounded by an estimate of its size in bytes.
+ *
+ * Lookups are lock-free: a hit is a ConcurrentHashMap read plus setting the entry's
+ * reference bit, so the structure is never reordered on access. Only inserts, which
+ * follow a miss, take a lock. Eviction approximates LRU with the CLOCK algorithm, and
+ * a FrequencySketch decides admission (TinyLFU): when the cache is full, a new word is
+ * only admitted if it has been requested more often than the victim it would replace,
+ * which suits the heavily skewed distribution of name tokens.
+ *
+ * Misses are cached too: a word without a vector is stored as a null entry, so the
+ * model is not asked again for every occurrence of an out-of-vocabulary token.
+ */
+public class EmbeddingCache {
+
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final class Node {
+        final String key;
+        final float[] vector;
+        final int weight;
+        volatile boolean referenced;
+
+        Node(String key, float[] vector, int weight) {
+            this.key = key;
+            this.vector = vector;
+            this.weight = weight;
+        }
+    }
+
+    /** Point-in-time counters of a cache. */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long rejections;
+        public final int entries;
+        public final long weightedSize;
+
+        Stats(long hits, long misses, long evictions, long rejections, int entries, long weightedSize) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.entries = entries;
+            this.weightedSize = weightedSize;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRate=%.4f evictions=%d rejections=%d entries=%d bytes=%d",
+                    hits, misses, hitRate(), evictions, rejections, entries, weightedSize);
+        }
+    }
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Node> map = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    // Guarded by evictionLock
+    private Node[] ring = new Node[1024];
+    private int ringSize = 0;
+    private int hand = 0;
+    private long weightedSize = 0;
+
+    /**
+     * @param maxBytes the approximate memory budget of the cached keys and vectors.
+     */
+    public EmbeddingCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Sized for the number of 300-dimensional vectors that fit in the budget.
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maxBytes / (ENTRY_OVERHEAD + 1200))));
+    }
+
+    /**
+     * Returns the cached vector of a token, loading it with the given function on a miss.
+     * @return the vector, or null if the loader has none for this token.
+     */
+    public float[] get(String token, Function<String, float[]> loader) {
+        sketch.increment(token.hashCode());
+        Node node = map.get(token);
+        if (node != null) {
+            node.referenced = true;
+            hits.increment();
+            return node.vector;
+        }
+        misses.increment();
+        float[] vector = loader.apply(token);
+        add(token, vector);
+        return vector;
+    }
+
+    private void add(String token, float[] vector) {
+        Node node = new Node(token, vector, ENTRY_OVERHEAD + 2 * token.length() + (vector == null ? 0 : 4 * vector.length));
+        if (node.weight > maxBytes) {
+            rejections.increment();
+            return;
+        }
+        evictionLock.lock();
+        try {
+            if (map.containsKey(token)) {
+                return;
+            }
+            while (weightedSize + node.weight > maxBytes) {
+                Node victim = nextVictim();
+                if (sketch.frequency(token.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                    rejections.increment();
+                    return;
+                }
+                removeAtHand();
+                evictions.increment();
+            }
+            if (ringSize == ring.length) {
+                Node[] larger = new Node[ring.length * 2];
+                System.arraycopy(ring, 0, larger, 0, ringSize);
+                ring = larger;
+            }
+            ring[ringSize++] = node;
+            weightedSize += node.weight;
+            map.put(token, node);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Advances the clock hand to the first entry not referenced since the last sweep. */
+    private Node nextVictim() {
+        while (true) {
+            if (hand >= ringSize) hand = 0;
+            Node node = ring[hand];
+            if (!node.referenced) {
+                return node;
+            }
+            node.referenced = false;
+            hand++;
+        }
+    }
+
+    private void removeAtHand() {
+        Node victim = ring[hand];
+        map.remove(victim.key, victim);
+        weightedSize -= victim.weight;
+        Node last = ring[--ringSize];
+        ring[ringSize] = null;
+        if (hand < ringSize) {
+            ring[hand] = last;
+        }
+    }
+
+    public Stats stats() {
+        evictionLock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum(), ringSize, weightedSize);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// EmbeddingMatrix.java
+package gr.edu.ihu.expblock;
+
+import java.util.Arrays;
+
+/**
+ * Row-major float matrix holding the normalized embeddings of the records stored on
+ * one side of a Block, row i belonging to the i-th record of that side. Records without
+ * an embedding get a zero row, so their cosine similarity with anything is 0, as before.
+ *
+ * Keeping the rows contiguous lets the semantic scores of an incoming record against the
+ * whole side be computed in one pass over memory (see dot).
+ */
+class EmbeddingMatrix {
+
+    private float[] data = new float[0];
+    private int rows = 0;
+    private int dim = 0;
+
+    int rows() {
+        return rows;
+    }
+
+    /** Appends a row; a null embedding is stored as a zero row. */
+    void add(float[] embedding) {
+        if (embedding != null && dim == 0) {
+            // First vector seen: rows added so far were zero rows of unknown width.
+            dim = embedding.length;
+            data = new float[Math.max(4, rows + 1) * dim];
+        }
+        if (dim > 0) {
+            int needed = (rows + 1) * dim;
+            if (needed > data.length) {
+                float[] larger = new float[Math.max(needed, data.length * 2)];
+                System.arraycopy(data, 0, larger, 0, rows * dim);
+                data = larger;
+            }
+            int base = rows * dim;
+            if (embedding != null) {
+                System.arraycopy(embedding, 0, data, base, dim);
+            } else {
+                Arrays.fill(data, base, base + dim, 0f);
+            }
+        }
+        rows++;
+    }
+
+    /** Removes row i by moving the last row into its place, mirroring a swap-remove of the record list. */
+    void swapRemove(int i) {
+        int last = rows - 1;
+        if (dim > 0 && i != last) {
+            System.arraycopy(data, last * dim, data, i * dim, dim);
+        }
+        rows--;
+    }
+
+    /** The dot product of query with row r alone; 0 for a null query. */
+    double dot(int r, float[] query) {
+        if (query == null || dim == 0) return 0.0;
+        final float[] m = data;
+        double s = 0;
+        for (int i = 0, base = r * dim; i < dim; i++) {
+            s += m[base + i] * query[i];
+        }
+        return s;
+    }
+
+    /**
+     * Computes the dot product of query with every row, i.e. the cosine similarities for
+     * normalized vectors, into out[0 .. rows). A null query yields zeros.
+     */
+    void dot(float[] query, double[] out) {
+        if (query == null || dim == 0) {
+            Arrays.fill(out, 0, rows, 0.0);
+            return;
+        }
+        final float[] m = data;
+        final int d = dim;
+        final int limit = d & ~3;
+        for (int r = 0, base = 0; r < rows; r++, base += d) {
+            // Four independent accumulators so the multiply-adds can be pipelined.
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int i = 0;
+            for (; i < limit; i += 4) {
+                s0 += m[base + i] * query[i];
+                s1 += m[base + i + 1] * query[i + 1];
+                s2 += m[base + i + 2] * query[i + 2];
+                s3 += m[base + i + 3] * query[i + 3];
+            }
+            for (; i < d; i++) {
+                s0 += m[base + i] * query[i];
+            }
+            out[r] = (s0 + s1) + (s2 + s3);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+// EmbeddingStore.java
+package gr.edu.ihu.expblock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only word embedding store backed by a memory-mapped file.
+ *
+ * The file is produced once from a word2vec binary model (see main) and holds the
+ * vectors as float32, or optionally as int8 with one scale per vector, followed by an
+ * open-addressing hash index over the vocabulary. Opening a store only maps the file,
+ * so it takes milliseconds, does not use the Java heap, and several JVMs on the same
+ * host share its pages through the OS page cache.
+ *
+ * Layout (big-endian): a 64-byte header, the vectors, the hash table (one int per
+ * bucket, holding word index + 1 or 0 when empty), the word offsets (one int per word)
+ * and the word pool (per word, a short byte length followed by its UTF-8 bytes).
+ */
+public class EmbeddingStore implements Closeable {
+
+    private static final int MAGIC = 0x45424D31; // "EBM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private final File file;
+    private final int vocabSize;
+    private final int dim;
+    private final boolean quantized;
+    private final int recordBytes;
+    private final int tableMask;
+    private final int vectorsPerChunk;
+    private final MappedByteBuffer[] vectorChunks;
+    private final ByteBuffer table;
+    private final ByteBuffer wordOffsets;
+    private final ByteBuffer pool;
+
+    private EmbeddingStore(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(file + " is not an embedding store");
+            }
+            this.vocabSize = header.getInt(8);
+            this.dim = header.getInt(12);
+            this.quantized = header.getInt(16) != 0;
+            int tableCapacity = header.getInt(20);
+            long tableOffset = header.getLong(24);
+            long wordsOffset = header.getLong(32);
+            long poolOffset = header.getLong(40);
+            long end = header.getLong(48);
+
+            this.recordBytes = quantized ? 4 + dim : 4 * dim;
+            this.tableMask = tableCapacity - 1;
+            // A mapping cannot exceed 2 GB, so the vectors are mapped in chunks.
+            this.vectorsPerChunk = Math.max(1, Integer.MAX_VALUE / recordBytes);
+            int chunks = vocabSize == 0 ? 0 : (vocabSize - 1) / vectorsPerChunk + 1;
+            this.vectorChunks = new MappedByteBuffer[chunks];
+            for (int c = 0; c < chunks; c++) {
+                int count = Math.min(vectorsPerChunk, vocabSize - c * vectorsPerChunk);
+                long offset = HEADER_SIZE + (long) c * vectorsPerChunk * recordBytes;
+                vectorChunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * recordBytes);
+            }
+            this.table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, wordsOffset - tableOffset);
+            this.wordOffsets = channel.map(FileChannel.MapMode.READ_ONLY, wordsOffset, poolOffset - wordsOffset);
+            this.pool = channel.map(FileChannel.MapMode.READ_ONLY, poolOffset, end - poolOffset);
+        }
+    }
+
+    /**
+     * Maps an existing store file.
+     */
+    public static EmbeddingStore open(File file) throws IOException {
+        return new EmbeddingStore(file);
+    }
+
+    /**
+     * Tells whether the file starts with the store header, as opposed to e.g. a word2vec model.
+     */
+    public static boolean isStoreFile(File file) {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return vocabSize;
+    }
+
+    public int dimension() {
+        return dim;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * Looks a word up in the vocabulary index.
+     * @return the index of the word, or -1 if it is not in the vocabulary.
+     */
+    public int indexOf(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int bucket = mix(word.hashCode()) & tableMask;
+        while (true) {
+            int entry = table.getInt(bucket * 4);
+            if (entry == 0) return -1;
+            int index = entry - 1;
+            if (wordEquals(index, bytes)) return index;
+            bucket = (bucket + 1) & tableMask;
+        }
+    }
+
+    public boolean hasWord(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    /**
+     * Copies the vector of the given word index into dst, which must hold dimension() floats.
+     */
+    public void vector(int index, float[] dst) {
+        ByteBuffer chunk = vectorChunks[index / vectorsPerChunk];
+        int base = (index % vectorsPerChunk) * recordBytes;
+        if (quantized) {
+            float scale = chunk.getFloat(base);
+            for (int i = 0; i < dim; i++) {
+                dst[i] = chunk.get(base + 4 + i) * scale;
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                dst[i] = chunk.getFloat(base + 4 * i);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the vector of a word, or null if the word is not in the vocabulary.
+     */
+    public float[] vector(String word) {
+        int index = indexOf(word);
+        if (index < 0) return null;
+        float[] v = new float[dim];
+        vector(index, v);
+        return v;
+    }
+
+    /**
+     * Returns a read-only view over the mapped vector of the given word index, without
+     * copying it. Only available for float32 stores.
+     */
+    public FloatBuffer view(int index) {
+        if (quantized) {
+            throw new UnsupportedOperationException("Quantized stores have no float view, use vector(int, float[])");
+        }
+        ByteBuffer chunk = vectorChunks[index / vectorsPerChunk].duplicate();
+        int base = (index % vectorsPerChunk) * recordBytes;
+        chunk.position(base);
+        chunk.limit(base + recordBytes);
+        return chunk.slice().asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the word stored under the given index.
+     */
+    public String word(int index) {
+        int offset = wordOffsets.getInt(index * 4);
+        int length = pool.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = pool.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean wordEquals(int index, byte[] bytes) {
+        int offset = wordOffsets.getInt(index * 4);
+        int length = pool.getShort(offset) & 0xFFFF;
+        if (length != bytes.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (pool.get(offset + 2 + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public void close() {
+        // Mapped buffers are released by the garbage collector; nothing to do.
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddingStore{" + file + ", words=" + vocabSize + ", dim=" + dim + (quantized ? ", int8" : ", float32") + "}";
+    }
+
+    /**
+     * Streams words and their vectors into a new store file. The vectors are written as
+     * they are added; the vocabulary index is built and written on close.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final int dim;
+        private final boolean quantize;
+        private final DataOutputStream out;
+        private final List<String> words = new ArrayList<>();
+        private final byte[] quantizedBuffer;
+        private long written = HEADER_SIZE;
+
+        public Writer(File file, int dim, boolean quantize) throws IOException {
+            this.file = file;
+            this.dim = dim;
+            this.quantize = quantize;
+            this.quantizedBuffer = quantize ? new byte[dim] : null;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        public void add(String word, float[] vector) throws IOException {
+            if (vector.length != dim) {
+                throw new IllegalArgumentException("Vector of '" + word + "' has " + vector.length + " dimensions, expected " + dim);
+            }
+            words.add(word);
+            if (quantize) {
+                float maxAbs = 0f;
+                for (float x : vector) maxAbs = Math.max(maxAbs, Math.abs(x));
+                float scale = maxAbs == 0f ? 1f : maxAbs / 127f;
+                for (int i = 0; i < dim; i++) {
+                    quantizedBuffer[i] = (byte) Math.round(vector[i] / scale);
+                }
+                out.writeFloat(scale);
+                out.write(quantizedBuffer);
+                written += 4 + dim;
+            } else {
+                for (float x : vector) out.writeFloat(x);
+                written += 4L * dim;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            int vocabSize = words.size();
+            int capacity = Integer.highestOneBit(Math.max(2, vocabSize * 2 - 1)) << 1;
+            int mask = capacity - 1;
+
+            int[] table = new int[capacity];
+            for (int i = 0; i < vocabSize; i++) {
+                int bucket = mix(words.get(i).hashCode()) & mask;
+                boolean duplicate = false;
+                while (table[bucket] != 0) {
+                    if (words.get(table[bucket] - 1).equals(words.get(i))) {
+                        duplicate = true;
+                        break;
+                    }
+                    bucket = (bucket + 1) & mask;
+                }
+                if (!duplicate) table[bucket] = i + 1;
+            }
+
+            long tableOffset = written;
+            for (int entry : table) out.writeInt(entry);
+            long wordsOffset = tableOffset + 4L * capacity;
+
+            long poolSize = 0;
+            for (String word : words) {
+                out.writeInt((int) poolSize);
+                poolSize += 2 + word.getBytes(StandardCharsets.UTF_8).length;
+                if (poolSize > Integer.MAX_VALUE) {
+                    throw new IOException("Vocabulary too large for an embedding store");
+                }
+            }
+            long poolOffset = wordsOffset + 4L * vocabSize;
+            for (String word : words) {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            long end = poolOffset + poolSize;
+            out.close();
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(vocabSize);
+                raf.writeInt(dim);
+                raf.writeInt(quantize ? 1 : 0);
+                raf.writeInt(capacity);
+                raf.writeLong(tableOffset);
+                raf.writeLong(wordsOffset);
+                raf.writeLong(poolOffset);
+                raf.writeLong(end);
+            }
+        }
+    }
+
+    /**
+     * Converts a word2vec binary model (such as GoogleNews-vectors-negative300.bin) into a store.
+     * @return the number of words written.
+     */
+    public static int convert(File word2vecBin, File store, boolean quantize) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(word2vecBin), 1 << 16))) {
+            String[] header = readToken(in, '\n').trim().split("\\s+");
+            int vocabSize = Integer.parseInt(header[0]);
+            int dim = Integer.parseInt(header[1]);
+            byte[] raw = new byte[4 * dim];
+            ByteBuffer little = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+            float[] vector = new float[dim];
+            try (Writer writer = new Writer(store, dim, quantize)) {
+                for (int n = 0; n < vocabSize; n++) {
+                    String word = readToken(in, ' ').trim();
+                    in.readFully(raw);
+                    for (int i = 0; i < dim; i++) {
+                        vector[i] = little.getFloat(4 * i);
+                    }
+                    writer.add(word, vector);
+                }
+            }
+            return vocabSize;
+        }
+    }
+
+    private static String readToken(InputStream in, char delimiter) throws IOException {
+        byte[] buffer = new byte[64];
+        int length = 0;
+        int c;
+        while ((c = in.read()) != delimiter) {
+            if (c < 0) throw new EOFException("Unexpected end of word2vec model");
+            if (length == 0 && c == '\n') continue;
+            if (length == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            buffer[length++] = (byte) c;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: EmbeddingStore <word2vec.bin> <store.emb> [--int8]");
+            System.exit(1);
+        }
+        boolean quantize = args.length > 2 && args[2].equals("--int8");
+        long start = System.currentTimeMillis();
+        int words = convert(new File(args[0]), new File(args[1]), quantize);
+        System.out.println("Converted " + words + " words into " + args[1] + " in "
+                + (System.currentTimeMillis() - start) / 1000.0 + " s.");
+    }
+}
@@ -0,0 +1,245 @@
+// EngineMetrics.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime instrumentation of an ExpBlock, or of all the shards of a ShardedExpBlock:
+ * throughput, put latency, block sizes, evictions and the embedding cache.
+ *
+ * Every counter is a LongAdder, and the histograms are made of LongAdders, so recording
+ * from several threads does not contend. snapshot() reads them without stopping the
+ * engine; its values are therefore only mutually consistent when the engine is idle.
+ */
+public class EngineMetrics {
+
+    private final long startNanos = System.nanoTime();
+
+    final LongAdder records = new LongAdder();
+    final LongAdder comparisons = new LongAdder();
+    final LongAdder removals = new LongAdder();
+    final LongAdder truePositives = new LongAdder();
+    final LongAdder falsePositives = new LongAdder();
+    final LongAdder evictionRounds = new LongAdder();
+    final LongAdder evictedBlocks = new LongAdder();
+    // New keys denied a block by the admission filter
+    final LongAdder admissionRejections = new LongAdder();
+    // Latency of each put, in nanoseconds
+    final Histogram putLatency = new Histogram();
+    // Size of the opposite side of the block each record was compared against
+    final Histogram comparisonListSizes = new Histogram();
+    // Blocks sampled by each eviction round
+    final Histogram evictionScans = new Histogram();
+
+    /** Records the put of one record, under all its keys. */
+    void recordPut(long nanos) {
+        records.increment();
+        putLatency.record(nanos);
+    }
+
+    /** Records what the put of a record into one block did. */
+    void recordBlock(Block.PutResult result) {
+        comparisonListSizes.record(result.candidates);
+        if (result.comparisons > 0) comparisons.add(result.comparisons);
+        if (result.removals > 0) removals.add(result.removals);
+        if (result.truePositives > 0) truePositives.add(result.truePositives);
+        if (result.falsePositives > 0) falsePositives.add(result.falsePositives);
+    }
+
+    /** Records the matches reported for a record in top-k mode, once all its blocks are scanned. */
+    void recordMatches(int truePositives, int falsePositives) {
+        if (truePositives > 0) this.truePositives.add(truePositives);
+        if (falsePositives > 0) this.falsePositives.add(falsePositives);
+    }
+
+    void recordRejection() {
+        admissionRejections.increment();
+    }
+
+    void recordEviction(int evicted, int scanned) {
+        evictionRounds.increment();
+        evictedBlocks.add(evicted);
+        evictionScans.record(scanned);
+    }
+
+    /**
+     * @param occupied the number of blocks currently held.
+     * @param capacity the maximum number of blocks, b.
+     */
+    public Snapshot snapshot(long occupied, long capacity) {
+        return new Snapshot(this, occupied, capacity);
+    }
+
+    /** Point-in-time values of the metrics, exportable as JSON or Prometheus text. */
+    public static class Snapshot {
+        public final double elapsedSeconds;
+        public final long records;
+        public final long comparisons;
+        public final long removals;
+        public final long truePositives;
+        public final long falsePositives;
+        public final long evictionRounds;
+        public final long evictedBlocks;
+        public final long admissionRejections;
+        public final long occupied;
+        public final long capacity;
+        public final Histogram.Snapshot putLatency;
+        public final Histogram.Snapshot comparisonListSizes;
+        public final Histogram.Snapshot evictionScans;
+        public final EmbeddingCache.Stats cache;
+        public final EmbeddingCache.Stats namePairs;
+        public final EmbeddingCache.Stats surnamePairs;
+
+        Snapshot(EngineMetrics m, long occupied, long capacity) {
+            this.elapsedSeconds = (System.nanoTime() - m.startNanos) / 1e9;
+            this.records = m.records.sum();
+            this.comparisons = m.comparisons.sum();
+            this.removals = m.removals.sum();
+            this.truePositives = m.truePositives.sum();
+            this.falsePositives = m.falsePositives.sum();
+            this.evictionRounds = m.evictionRounds.sum();
+            this.evictedBlocks = m.evictedBlocks.sum();
+            this.admissionRejections = m.admissionRejections.sum();
+            this.occupied = occupied;
+            this.capacity = capacity;
+            this.putLatency = m.putLatency.snapshot();
+            this.comparisonListSizes = m.comparisonListSizes.snapshot();
+            this.evictionScans = m.evictionScans.snapshot();
+            this.cache = SimilarityService.cacheStats();
+            this.namePairs = PairScoreCache.NAMES.stats();
+            this.surnamePairs = PairScoreCache.SURNAMES.stats();
+        }
+
+        public double recordsPerSecond() {
+            return elapsedSeconds > 0 ? records / elapsedSeconds : 0.0;
+        }
+
+        public double comparisonsPerRecord() {
+            return records > 0 ? (double) comparisons / records : 0.0;
+        }
+
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\n");
+            field(sb, "elapsedSeconds", elapsedSeconds);
+            field(sb, "records", records);
+            field(sb, "recordsPerSecond", recordsPerSecond());
+            field(sb, "comparisons", comparisons);
+            field(sb, "comparisonsPerRecord", comparisonsPerRecord());
+            field(sb, "truePositives", truePositives);
+            field(sb, "falsePositives", falsePositives);
+            field(sb, "wRemovals", removals);
+            field(sb, "evictionRounds", evictionRounds);
+            field(sb, "evictedBlocks", evictedBlocks);
+            field(sb, "admissionRejections", admissionRejections);
+            field(sb, "occupiedBlocks", occupied);
+            field(sb, "occupancy", capacity > 0 ? (double) occupied / capacity : 0.0);
+            histogram(sb, "putLatencyNanos", putLatency);
+            histogram(sb, "comparisonListSize", comparisonListSizes);
+            histogram(sb, "evictionScan", evictionScans);
+            cache(sb, "namePairCache", namePairs).append(",\n");
+            cache(sb, "surnamePairCache", surnamePairs).append(",\n");
+            cache(sb, "embeddingCache", cache).append("\n");
+            sb.append("}");
+            return sb.toString();
+        }
+
+        private static void field(StringBuilder sb, String name, long value) {
+            sb.append("  \"").append(name).append("\": ").append(value).append(",\n");
+        }
+
+        private static void field(StringBuilder sb, String name, double value) {
+            sb.append("  \"").append(name).append("\": ").append(format(value)).append(",\n");
+        }
+
+        private static StringBuilder cache(StringBuilder sb, String name, EmbeddingCache.Stats c) {
+            return sb.append("  \"").append(name).append("\": {\"hits\": ").append(c.hits)
+                    .append(", \"misses\": ").append(c.misses)
+                    .append(", \"hitRate\": ").append(format(c.hitRate()))
+                    .append(", \"evictions\": ").append(c.evictions)
+                    .append(", \"entries\": ").append(c.entries).append("}");
+        }
+
+        private static void histogram(StringBuilder sb, String name, Histogram.Snapshot h) {
+            sb.append("  \"").append(name).append("\": {\"count\": ").append(h.count)
+                    .append(", \"mean\": ").append(format(h.mean()))
+                    .append(", \"p50\": ").append(h.percentile(0.5))
+                    .append(", \"p90\": ").append(h.percentile(0.9))
+                    .append(", \"p99\": ").append(h.percentile(0.99))
+                    .append(", \"p999\": ").append(h.percentile(0.999))
+                    .append(", \"max\": ").append(h.max).append("},\n");
+        }
+
+        /** Prometheus text exposition format; histograms are exported as summaries. */
+        public String toPrometheus() {
+            StringBuilder sb = new StringBuilder();
+            counter(sb, "expblock_records_total", "Records put.", records);
+            counter(sb, "expblock_comparisons_total", "Record pairs compared.", comparisons);
+            counter(sb, "expblock_true_positives_total", "Matching pairs found.", truePositives);
+            counter(sb, "expblock_false_positives_total", "Non-matching pairs reported as matches.", falsePositives);
+            counter(sb, "expblock_w_removals_total", "Records removed from blocks that reached w.", removals);
+            counter(sb, "expblock_eviction_rounds_total", "Eviction rounds.", evictionRounds);
+            counter(sb, "expblock_evicted_blocks_total", "Blocks evicted.", evictedBlocks);
+            counter(sb, "expblock_admission_rejections_total", "New keys denied a block by the admission filter.", admissionRejections);
+            gauge(sb, "expblock_records_per_second", "Average put throughput since start.", recordsPerSecond());
+            gauge(sb, "expblock_occupied_blocks", "Blocks currently held.", occupied);
+            gauge(sb, "expblock_block_capacity", "Maximum number of blocks (b).", capacity);
+            summary(sb, "expblock_put_latency_seconds", "Latency of a put.", putLatency, 1e-9);
+            summary(sb, "expblock_comparison_list_size", "Records on the opposite side of the block at each put.", comparisonListSizes, 1);
+            summary(sb, "expblock_eviction_scan_blocks", "Blocks sampled by an eviction round.", evictionScans, 1);
+            counter(sb, "expblock_embedding_cache_hits_total", "Embedding cache hits.", cache.hits);
+            counter(sb, "expblock_embedding_cache_misses_total", "Embedding cache misses.", cache.misses);
+            gauge(sb, "expblock_embedding_cache_hit_ratio", "Embedding cache hit rate.", cache.hitRate());
+            counter(sb, "expblock_name_pair_cache_hits_total", "Name distances answered by the pair cache.", namePairs.hits);
+            counter(sb, "expblock_name_pair_cache_misses_total", "Name distances computed.", namePairs.misses);
+            counter(sb, "expblock_surname_pair_cache_hits_total", "Surname distances answered by the pair cache.", surnamePairs.hits);
+            counter(sb, "expblock_surname_pair_cache_misses_total", "Surname distances computed.", surnamePairs.misses);
+            return sb.toString();
+        }
+
+        private static void counter(StringBuilder sb, String name, String help, long value) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(value).append('\n');
+        }
+
+        private static void gauge(StringBuilder sb, String name, String help, double value) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(' ').append(format(value)).append('\n');
+        }
+
+        private static void summary(StringBuilder sb, String name, String help, Histogram.Snapshot h, double scale) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(format(h.percentile(q) * scale)).append('\n');
+            }
+            sb.append(name).append("_sum ").append(format(h.sum * scale)).append('\n');
+            sb.append(name).append("_count ").append(h.count).append('\n');
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ROOT, "%.6g", value);
+        }
+
+        /**
+         * Writes the Prometheus text to a file, replacing it atomically, as expected by
+         * the node_exporter textfile collector.
+         */
+        public void writePrometheus(File file) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileWriter out = new FileWriter(tmp)) {
+                out.write(toPrometheus());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+// EntityClusters.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Online entity clustering: a MatchSink that merges the two records of every match it
+ * accepts into one entity, the transitive closure of the matches so far, before passing
+ * the match on to the sink it wraps. entityOf answers which entity a record belongs to
+ * at any time, and stats() summarizes the cluster sizes.
+ *
+ * The entities are a lock-free union-find over Record.seq, with union by rank and path
+ * halving. Each record has one long holding its parent and rank, so linking a root is a
+ * single compare-and-set; roots are linked under the root of higher (rank, seq), and as
+ * that order only grows while a record is a root, concurrent unions cannot form a cycle.
+ * The longs are allocated in chunks of 64K records as matches reach them, so memory
+ * grows with the number of records, 8 bytes each, not with the number of pairs.
+ */
+public class EntityClusters implements MatchSink {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // Palavra de cada registro: pai + 1 nos 32 bits baixos (0 numa raiz), rank acima
+    // e o bit SEEN, ligado em todo registro que já apareceu num match
+    private static final long PARENT_MASK = 0xFFFFFFFFL;
+    private static final long RANK_UNIT = 1L << 32;
+    private static final long RANK_MASK = 0xFFL << 32;
+    private static final long SEEN = 1L << 40;
+
+    private final MatchSink downstream;
+    private final AtomicReferenceArray<AtomicLongArray> chunks =
+            new AtomicReferenceArray<>((int) ((1L << 31) >>> CHUNK_BITS));
+    private final AtomicLong merges = new AtomicLong();
+
+    /** @param downstream the sink receiving the matches, or null to only cluster them. */
+    public EntityClusters(MatchSink downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(Record existing, Record incoming, double score) {
+        union(id(existing.seq), id(incoming.seq));
+        if (downstream != null) {
+            downstream.accept(existing, incoming, score);
+        }
+    }
+
+    private static int id(long seq) {
+        if (seq > Integer.MAX_VALUE) {
+            throw new IllegalStateException("EntityClusters supports up to 2^31 records");
+        }
+        return (int) seq;
+    }
+
+    private AtomicLongArray chunk(int id) {
+        int c = id >>> CHUNK_BITS;
+        AtomicLongArray chunk = chunks.get(c);
+        if (chunk == null) {
+            chunks.compareAndSet(c, null, new AtomicLongArray(CHUNK_SIZE));
+            chunk = chunks.get(c);
+        }
+        return chunk;
+    }
+
+    private long word(int id) {
+        AtomicLongArray chunk = chunks.get(id >>> CHUNK_BITS);
+        return chunk == null ? 0 : chunk.get(id & (CHUNK_SIZE - 1));
+    }
+
+    private boolean cas(int id, long expected, long value) {
+        return chunk(id).compareAndSet(id & (CHUNK_SIZE - 1), expected, value);
+    }
+
+    private static int parent(long word) {
+        return (int) (word & PARENT_MASK) - 1;
+    }
+
+    private void markSeen(int id) {
+        long w;
+        while (((w = word(id)) & SEEN) == 0) {
+            if (cas(id, w, w | SEEN)) return;
+        }
+    }
+
+    private int find(int id) {
+        while (true) {
+            long w = word(id);
+            int p = parent(w);
+            if (p < 0) return id;
+            long pw = word(p);
+            int gp = parent(pw);
+            if (gp < 0) return p;
+            // Path halving: aponta id para o avô; falhar só deixa o caminho mais longo
+            cas(id, w, (w & ~PARENT_MASK) | (gp + 1));
+            id = gp;
+        }
+    }
+
+    /** @return whether a and b were in different entities. */
+    private boolean union(int a, int b) {
+        markSeen(a);
+        markSeen(b);
+        while (true) {
+            int ra = find(a);
+            int rb = find(b);
+            if (ra == rb) return false;
+            long wa = word(ra);
+            long wb = word(rb);
+            if (parent(wa) >= 0 || parent(wb) >= 0) continue;
+            long rankA = wa & RANK_MASK;
+            long rankB = wb & RANK_MASK;
+            if (rankA > rankB || (rankA == rankB && ra > rb)) {
+                int t = ra; ra = rb; rb = t;
+                long tw = wa; wa = wb; wb = tw;
+                long tr = rankA; rankA = rankB; rankB = tr;
+            }
+            // ra tem (rank, id) menor: vira filho de rb
+            if (cas(ra, wa, wa | (rb + 1))) {
+                if (rankA == rankB) {
+                    // Se rb mudou no meio tempo, o rank fica como está: só afeta o equilíbrio
+                    cas(rb, wb, wb + RANK_UNIT);
+                }
+                merges.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the id of the entity of the record: the seq of its representative, which
+     * changes when its cluster is merged with another. A record that has not matched any
+     * other is an entity of its own.
+     */
+    public long entityOf(Record rec) {
+        return entityOf(rec.seq);
+    }
+
+    public long entityOf(long seq) {
+        return find(id(seq));
+    }
+
+    public boolean sameEntity(Record a, Record b) {
+        // Uma união concorrente pode mudar as raízes entre as duas buscas: repete
+        while (true) {
+            int ra = find(id(a.seq));
+            int rb = find(id(b.seq));
+            if (ra == rb) return true;
+            if (parent(word(ra)) < 0) return false;
+        }
+    }
+
+    /** Cluster sizes at one point in time. */
+    public static class Stats {
+        // Records that appeared in at least one match
+        public final long records;
+        // Entities with two or more records
+        public final long clusters;
+        public final long largest;
+        // sizeHistogram[i]: clusters of size in [2^i, 2^(i+1))
+        public final long[] sizeHistogram;
+
+        Stats(long records, long clusters, long largest, long[] sizeHistogram) {
+            this.records = records;
+            this.clusters = clusters;
+            this.largest = largest;
+            this.sizeHistogram = sizeHistogram;
+        }
+
+        public double meanSize() {
+            return clusters > 0 ? (double) records / clusters : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d clusters of %d records (mean %.2f, largest %d); sizes",
+                    clusters, records, meanSize(), largest));
+            for (int i = 1; i < sizeHistogram.length; i++) {
+                if (sizeHistogram[i] > 0) {
+                    sb.append(' ').append(1L << i).append("+:").append(sizeHistogram[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Scans every record that has matched, so it is meant to be called periodically, not per match. */
+    public Stats stats() {
+        HashMap<Integer, int[]> sizes = new HashMap<>();
+        for (int c = 0; c < chunks.length(); c++) {
+            AtomicLongArray chunk = chunks.get(c);
+            if (chunk == null) continue;
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                if ((chunk.get(i) & SEEN) != 0) {
+                    sizes.computeIfAbsent(find((c << CHUNK_BITS) | i), k -> new int[1])[0]++;
+                }
+            }
+        }
+        long records = 0;
+        long largest = 0;
+        long[] histogram = new long[32];
+        for (int[] size : sizes.values()) {
+            records += size[0];
+            largest = Math.max(largest, size[0]);
+            histogram[31 - Integer.numberOfLeadingZeros(size[0])]++;
+        }
+        return new Stats(records, sizes.size(), largest, histogram);
+    }
+
+    /** Unions that merged two entities so far. */
+    public long merges() {
+        return merges.get();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (downstream != null) downstream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (downstream != null) downstream.close();
+    }
+}
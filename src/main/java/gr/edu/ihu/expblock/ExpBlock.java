@@ -1,20 +1,19 @@
 // ExpBlock.java
 package gr.edu.ihu.expblock;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SplittableRandom;
-import java.util.stream.IntStream;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.codec.language.Soundex;
 
-public class ExpBlock {
+public class ExpBlock implements AutoCloseable {
     private static final Soundex soundex = new Soundex();
 
     public double epsilon;
@@ -28,17 +27,67 @@ public class ExpBlock {
     public int currentRound = 1;
     public int matchingPairsNo = 0;
     public int falsePositivesNo = 0;
+    // Denominador do recall; o ExperimentRunner o calcula dos registros carregados
     public int trulyMatchingPairsNo = 1000000;
     public MinHash minHash = new MinHash();
-    public static FileWriter writer;
+    public MatchSink sink;
+    public EngineMetrics metrics = new EngineMetrics();
+    // Set by Checkpointer.restore too, when it opens results.txt itself
+    boolean ownsSink = false;
     public Block[] arr;
-    IntStream rS;
-    int[] r;
-    int noRandoms = 5000;
+    // Block visits per put when eviction rounds are spread over puts; 0 runs each round at once
+    public int evictionStepsPerPut = 0;
+    // Top-k mode when > 0: only the k best matches of each record are counted and reported,
+    // and putKeyed returns them ranked (see TopMatches); ShardedExpBlock does not support it
+    public int topK = 0;
+    // Evicted blocks are spilled here and promoted back on their next put; null discards
+    // them. The caller opens and closes the tier
+    public ColdTier coldTier;
+    // Semantic keys alongside or instead of the character ones; null uses minHash alone
+    public SemanticBlocker semanticBlocker;
+    // Admission control of new blocks; null creates a block for every new key
+    public AdmissionFilter admission;
     private final ExperimentConfig currentConfig;
 
+    // Directory of the blocks held in arr: key -> slot, plus a stack of free slots,
+    // so that locating or placing a block does not require scanning arr.
+    private final HashMap<String, Integer> slotIndex;
+    private final int[] freeSlots;
+    private int freeCount;
+    // Dense array of the occupied slots, which eviction samples from; livePos[slot] is the
+    // position of slot in live, or -1 when it is free.
+    private final int[] live;
+    private final int[] livePos;
+    private int liveCount;
+
+    // State of the splitmix64 generator behind the eviction sampling
+    long rngState = new SplittableRandom().nextLong();
+    // Eviction round in progress: blocks still to evict (0 if none), and its statistics
+    int evictionRemaining = 0;
+    int evictionAvg;
+    int evictionEvicted;
+    int evictionScanned;
+
     public ExpBlock(double epsilon, double q, int b, ExperimentConfig config) {
+        this(epsilon, q, b, config, null);
+    }
+
+    /**
+     * Creates an ExpBlock that reports its matches to the given sink, which may be
+     * shared with other instances (e.g. the shards of a ShardedExpBlock). When sink
+     * is null, results.txt is opened in the working directory and closed by close().
+     */
+    public ExpBlock(double epsilon, double q, int b, ExperimentConfig config, MatchSink sink) {
         this.currentConfig = config;
+        this.slotIndex = new HashMap<>(b * 2);
+        this.freeSlots = new int[b];
+        for (int i = 0; i < b; i++) {
+            this.freeSlots[i] = b - 1 - i;
+        }
+        this.freeCount = b;
+        this.live = new int[b];
+        this.livePos = new int[b];
+        Arrays.fill(this.livePos, -1);
         try {
             this.epsilon = epsilon;
             this.b = b;
@@ -46,109 +95,422 @@ public class ExpBlock {
             this.arr = new Block[this.b];
              // Salva a configuração
 
-            for (int i = 0; i < 10; i++) {
-                IntStream rS = new SplittableRandom().ints(this.noRandoms / 10, 0, this.b);
-                int[] r = rS.toArray();
-                Arrays.sort(r);
-                this.r = ArrayUtils.addAll(this.r, r);
+            this.w = recordsPerBlock(epsilon, q, this.delta);
+            if (sink != null) {
+                this.sink = sink;
+            } else {
+                this.sink = new AsyncMatchSink(new File("results.txt"), AsyncMatchSink.Format.TEXT);
+                this.ownsSink = true;
             }
-            this.w = (int) Math.ceil(3 * Math.log(2 / this.delta) / (this.q * (this.epsilon * this.epsilon)));
-            writer = new FileWriter("results.txt");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /** The capacity w of each block for the given accuracy parameters. */
+    static int recordsPerBlock(double epsilon, double q, double delta) {
+        return (int) Math.ceil(3 * Math.log(2 / delta) / (q * (epsilon * epsilon)));
+    }
+
     public void put(Record rec) {
-        if (this.occupied == b) {
-            int avg = this.globalRecNo / b;
-            if (avg == 0) avg = 1;
-    
-            int v = 0;
-            int j = 0;
-            int i = r[j];
-            while (v < (int) Math.floor((xi * b))) {
-                Block block = arr[i];
-                if (block == null) {
-                    j++;
-                    if (j == this.noRandoms) j = 0;
-                    i = r[j];
-                    continue;
-                }
-                block.setDegree(avg, currentRound);
-                if (block.degree <= 0) {
-                    arr[i] = null;
-                    v++;
-                } else {
-                    block.recNo = block.recNo - avg;
+        blockingKeys(rec);
+        putKeyed(rec);
+    }
+
+    private void blockingKeys(Record rec) {
+        if (semanticBlocker != null) {
+            semanticBlocker.keys(rec, minHash);
+        } else {
+            rec.getBlockingKeys(minHash);
+        }
+    }
+
+    /**
+     * Inserts a record whose blocking keys have already been computed into rec.bKeys,
+     * once under each key. Records sharing several keys with it are compared only once.
+     * @return the matches found against the records of its blocks; in top-k mode, also
+     * the best of them in matches.
+     */
+    public Block.PutResult putKeyed(Record rec) {
+        long start = System.nanoTime();
+        LongSet compared = rec.bKeys.length > 1 ? new LongSet() : null;
+        TopMatches top = topK > 0 ? new TopMatches(topK) : null;
+        Block.PutResult total = new Block.PutResult();
+        for (int band = 0; band < rec.bKeys.length; band++) {
+            add(total, putBand(rec, band, compared, top));
+        }
+        if (top != null) {
+            reportTopK(rec, top, total);
+        }
+        metrics.recordPut(System.nanoTime() - start);
+        return total;
+    }
+
+    private static void add(Block.PutResult total, Block.PutResult result) {
+        total.truePositives += result.truePositives;
+        total.falsePositives += result.falsePositives;
+        total.candidates += result.candidates;
+        total.comparisons += result.comparisons;
+        total.removals += result.removals;
+        total.pruned += result.pruned;
+    }
+
+    private void reportTopK(Record rec, TopMatches top, Block.PutResult total) {
+        // Só os k melhores pares, de todos os blocos do registro, são contados e reportados
+        total.matches = top.ranked();
+        for (TopMatches.Match match : total.matches) {
+            if (match.truePositive) {
+                total.truePositives++;
+                sink.accept(match.record, rec, match.score);
+            } else {
+                total.falsePositives++;
+            }
+        }
+        this.matchingPairsNo += total.truePositives;
+        this.falsePositivesNo += total.falsePositives;
+        metrics.recordMatches(total.truePositives, total.falsePositives);
+    }
+
+    /**
+     * Inserts a batch of records, as delivered by a queue consumer, with the same matches
+     * as putting them one by one, apart from the randomness of eviction. The keys of the
+     * whole batch are computed first and the records grouped by key; each block is then
+     * looked up once and the records of its group put into it in arrival order, so pairs
+     * within the batch are found as well.
+     *
+     * Eviction is left to the creation of blocks, after the admission filter and the cold
+     * tier have had their say: a new block in a full arr advances the eviction round in
+     * progress, or starts one, until a slot is free, and the rest of the round continues
+     * at the next new block. This is where the batch departs from sequential puts, which
+     * run a whole round (or evictionStepsPerPut steps of it) at the start of every put
+     * while arr is full, whether its key is new or not; a batch of hits evicts nothing.
+     * Unless eviction is incremental (evictionStepsPerPut), a round still in progress is
+     * finished at the end of the batch, so that later puts start from a complete round.
+     * Records are counted in globalRecNo as by putBand, rejected ones included.
+     * @return the result of each record, in batch order, as putKeyed would return it.
+     */
+    public Block.PutResult[] putAll(List<Record> batch) {
+        long start = System.nanoTime();
+        int n = batch.size();
+        // Chave -> posições no lote dos registros com essa chave, na ordem de chegada
+        LinkedHashMap<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            Record rec = batch.get(i);
+            blockingKeys(rec);
+            for (String key : rec.bKeys) {
+                groups.computeIfAbsent(key, k -> new ArrayList<>(2)).add(i);
+            }
+        }
+
+        Block.PutResult[] totals = new Block.PutResult[n];
+        LongSet[] compared = new LongSet[n];
+        TopMatches[] tops = new TopMatches[n];
+        for (int i = 0; i < n; i++) {
+            totals[i] = new Block.PutResult();
+            if (batch.get(i).bKeys.length > 1) compared[i] = new LongSet();
+            if (topK > 0) tops[i] = new TopMatches(topK);
+        }
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            String key = group.getKey();
+            List<Integer> members = group.getValue();
+            if (admission != null) {
+                for (int m = 0; m < members.size(); m++) admission.increment(key);
+            }
+            // O primeiro é contado antes da busca, como em putBand; os demais, um a um
+            this.globalRecNo++;
+            Integer slot = slotIndex.get(key);
+            Block block = slot != null ? arr[slot] : newBlock(key, batch.get(members.get(0)));
+            if (block == null) {
+                for (int m = 1; m < members.size(); m++) {
+                    this.globalRecNo++;
+                    admission.reject(key, batch.get(members.get(m)));
+                    metrics.recordRejection();
                 }
-                j++;
-                if (j == this.noRandoms) j = 0;
-                i = r[j];
+                continue;
             }
-            this.occupied = this.occupied - ((int) Math.floor((xi * b)));
-            currentRound++;
+            for (int m = 0; m < members.size(); m++) {
+                int i = members.get(m);
+                if (m > 0) this.globalRecNo++;
+                Block.PutResult result = block.put(batch.get(i), w, currentRound, sink, compared[i], tops[i]);
+                this.matchingPairsNo += result.truePositives;
+                this.falsePositivesNo += result.falsePositives;
+                metrics.recordBlock(result);
+                add(totals[i], result);
+            }
+        }
+        if (evictionStepsPerPut == 0 && evictionRemaining > 0) {
+            // Um put sem passos incrementais começaria outra rodada sem fechar esta
+            evictionSteps(Integer.MAX_VALUE, false);
+        }
+        if (topK > 0) {
+            for (int i = 0; i < n; i++) {
+                reportTopK(batch.get(i), tops[i], totals[i]);
+            }
+        }
+        // Cada registro do lote é contado com uma parte igual da latência do lote
+        long share = n > 0 ? (System.nanoTime() - start) / n : 0;
+        for (int i = 0; i < n; i++) {
+            metrics.recordPut(share);
+        }
+        return totals;
+    }
+
+    /**
+     * Inserts a record under one of its blocking keys, rec.bKeys[band].
+     * @param compared the records already compared with rec under its other keys, or null;
+     * a LongSet.Shared when other engines handle some of those keys (see ShardedExpBlock).
+     * @return the matches found against the records of the block.
+     */
+    public Block.PutResult putBand(Record rec, int band, LongSet compared) {
+        return putBand(rec, band, compared, null);
+    }
+
+    private Block.PutResult putBand(Record rec, int band, LongSet compared, TopMatches top) {
+        if (evictionStepsPerPut > 0) {
+            if (evictionRemaining == 0 && this.occupied == b) {
+                beginEvictionRound();
+            }
+            if (evictionRemaining > 0) {
+                evictionSteps(evictionStepsPerPut, false);
+            }
+        } else if (this.occupied == b) {
+            evictionRound();
         }
     
+        // Counts block insertions, i.e. records when each record has a single key
         this.globalRecNo++;
-        String key = rec.getBlockingKey(minHash);
-    
-        boolean blockExists = false;
-        int emptyPos = -1;
-    
-        for (int i = 0; i < arr.length; i++) {
-            Block block = arr[i];
-            if (block != null) {
-                double exactMatchScore = block.key.equals(key) ? 1.0 : 0.0;
-                double finalScore = exactMatchScore;
-            
-    
-                if (finalScore >= currentConfig.similarityThreshold) {
-                    Block.PutResult result = block.put(rec, w, currentRound, writer);
-                    this.matchingPairsNo += result.truePositives;
-                    this.falsePositivesNo += result.falsePositives;
-                    blockExists = true;
-                    break;
-                }
-            } else {
-                emptyPos = i;
+
+        String key = rec.bKeys[band];
+        if (admission != null) {
+            admission.increment(key);
+        }
+        Integer slot = slotIndex.get(key);
+        Block block = slot != null ? arr[slot] : newBlock(key, rec);
+        if (block == null) {
+            return new Block.PutResult();
+        }
+        Block.PutResult result = block.put(rec, w, currentRound, sink, compared, top);
+        this.matchingPairsNo += result.truePositives;
+        this.falsePositivesNo += result.falsePositives;
+        metrics.recordBlock(result);
+        return result;
+    }
+
+    /**
+     * Places a block for a key that has none in arr, promoted from the cold tier or new,
+     * evicting first if arr is full.
+     * @return the block, or null if the admission filter rejected the key; rec is then
+     * kept in probation.
+     */
+    private Block newBlock(String key, Record rec) {
+        Block block = coldTier != null ? promote(key) : null;
+        if (block == null && admission != null
+                && !admission.admit(key, liveCount > 0 ? arr[live[nextInt(liveCount)]].key : null)) {
+            // Chave nova e rara: o registro fica em probação, sem bloco
+            admission.reject(key, rec);
+            metrics.recordRejection();
+            return null;
+        }
+        if (this.occupied == b) {
+            // arr cheio (rodada incremental, ou putAll): avança a rodada até liberar um slot
+            if (evictionRemaining == 0) {
+                beginEvictionRound();
             }
+            evictionSteps(Integer.MAX_VALUE, true);
         }
-    
-        if (!blockExists) {
-            Block newBlock = new Block(key, this.q, this.currentConfig);
-            this.occupied++;
-            Block.PutResult result = newBlock.put(rec, w, currentRound, writer);
-            if (emptyPos != -1) {
-                arr[emptyPos] = newBlock;
-            } else {
-                for (int i = 0; i < this.b; i++) {
-                    if (arr[i] == null) {
-                        arr[i] = newBlock;
-                        break;
-                    }
-                }
+        if (block == null) {
+            block = new Block(key, this.q, this.currentConfig);
+            if (admission != null) {
+                releaseProbation(key, block);
             }
+        }
+        this.occupied++;
+        placeBlock(block);
+        return block;
+    }
+
+    /**
+     * Puts the records kept in probation under key into its new block, oldest first, as
+     * puts under that key; they were counted in globalRecNo when rejected.
+     */
+    private void releaseProbation(String key, Block block) {
+        for (Record held : admission.release(key)) {
+            TopMatches top = topK > 0 ? new TopMatches(topK) : null;
+            Block.PutResult result = block.put(held, w, currentRound, sink, null, top);
             this.matchingPairsNo += result.truePositives;
             this.falsePositivesNo += result.falsePositives;
+            metrics.recordBlock(result);
+            if (top != null) {
+                reportTopK(held, top, result);
+            }
         }
-    }    
+    }
+
+    /**
+     * Runs a whole eviction round: samples live blocks at random, lowering their degree,
+     * until max(1, floor(xi * b)) blocks have reached degree 0 and been removed.
+     */
+    void evictionRound() {
+        beginEvictionRound();
+        evictionSteps(Integer.MAX_VALUE, false);
+    }
+
+    private void beginEvictionRound() {
+        evictionAvg = Math.max(1, this.globalRecNo / b);
+        evictionRemaining = Math.max(1, (int) Math.floor(xi * b));
+        evictionEvicted = 0;
+        evictionScanned = 0;
+    }
 
+    /**
+     * Visits up to maxSteps random live blocks for the round in progress, stopping early
+     * once a block is removed if untilFree. Ends the round when its quota is met.
+     */
+    private void evictionSteps(int maxSteps, boolean untilFree) {
+        for (int step = 0; step < maxSteps && evictionRemaining > 0 && liveCount > 0; step++) {
+            evictionScanned++;
+            int slot = live[nextInt(liveCount)];
+            Block block = arr[slot];
+            block.setDegree(evictionAvg, currentRound);
+            if (block.degree <= 0) {
+                if (coldTier != null) {
+                    // O tier fica com as referências dos registros
+                    spill(block);
+                } else {
+                    block.release();
+                }
+                removeBlock(slot);
+                this.occupied--;
+                evictionEvicted++;
+                evictionRemaining--;
+                if (untilFree) break;
+            } else {
+                block.recNo = block.recNo - evictionAvg;
+            }
+        }
+        if (evictionRemaining == 0 || liveCount == 0) {
+            evictionRemaining = 0;
+            currentRound++;
+            metrics.recordEviction(evictionEvicted, evictionScanned);
+        }
+    }
+
+    private void spill(Block block) {
+        try {
+            coldTier.put(block);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Block promote(String key) {
+        try {
+            return coldTier.take(key, this.q, this.currentConfig);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Uniform int in [0, bound) from a splitmix64 step (multiply-shift reduction). */
+    private int nextInt(int bound) {
+        long z = (rngState += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    /** Seeds the eviction sampling, for reproducible runs. */
+    public void setSeed(long seed) {
+        this.rngState = seed;
+    }
+
+    /** Current values of the metrics of this engine. */
+    public EngineMetrics.Snapshot metricsSnapshot() {
+        return metrics.snapshot(occupied, b);
+    }
+
+    /**
+     * Writes out the pending matches and closes the sink if it was opened by this instance,
+     * and empties the engine, giving back the references of its records to the shared
+     * StringDictionary. The cold tier, which may be shared, is left to its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        while (liveCount > 0) {
+            int slot = live[liveCount - 1];
+            arr[slot].release();
+            removeBlock(slot);
+            this.occupied--;
+        }
+        if (ownsSink) {
+            sink.close();
+        }
+    }
+
+    /**
+     * Stores a new block in a free slot of arr and registers its key.
+     */
+    private void placeBlock(Block block) {
+        int slot = freeSlots[--freeCount];
+        arr[slot] = block;
+        slotIndex.put(block.key, slot);
+        livePos[slot] = liveCount;
+        live[liveCount++] = slot;
+    }
+
+    /**
+     * Removes the block held in the given slot and returns the slot to the free list.
+     */
+    private void removeBlock(int slot) {
+        Block block = arr[slot];
+        arr[slot] = null;
+        slotIndex.remove(block.key);
+        freeSlots[freeCount++] = slot;
+        int pos = livePos[slot];
+        int last = live[--liveCount];
+        live[pos] = last;
+        livePos[last] = pos;
+        livePos[slot] = -1;
+    }
+
+    ExperimentConfig getConfig() {
+        return currentConfig;
+    }
+
+    /** The free-slot stack, bottom first, as placeBlock pops it from the top. */
+    int[] freeSlots() {
+        return Arrays.copyOf(freeSlots, freeCount);
+    }
+
+    /** The occupied slots, in the order eviction samples them from. */
+    int[] liveSlots() {
+        return Arrays.copyOf(live, liveCount);
+    }
+
+    /**
+     * Reinstalls the blocks, free-slot stack and live-slot order read from a checkpoint
+     * (see Checkpointer). The engine must be empty.
+     */
+    void restoreSlots(Block[] blocks, int[] free, int[] liveSlots) {
+        for (int slot = 0; slot < blocks.length; slot++) {
+            if (blocks[slot] != null) {
+                arr[slot] = blocks[slot];
+                slotIndex.put(blocks[slot].key, slot);
+            }
+        }
+        System.arraycopy(free, 0, freeSlots, 0, free.length);
+        freeCount = free.length;
+        for (int i = 0; i < liveSlots.length; i++) {
+            live[i] = liveSlots[i];
+            livePos[liveSlots[i]] = i;
+        }
+        liveCount = liveSlots.length;
+    }
+
+    /** Builds a record from a line of the voter files; null if it has fewer than six columns. */
     public static Record prepare(String[] lineInArray) {
-        String surname = lineInArray[1];
-        String name = lineInArray[2];
-        String address = lineInArray[3];
-        String town = lineInArray[4];
-        String poBox = lineInArray[5];
-        String id = lineInArray[0];
-        Record rec = new Record();
-        rec.id = id;
-        rec.name = name;
-        rec.surname = surname;
-        rec.town = town;
-        rec.poBox = poBox;
-        rec.origin = id.startsWith("a") ? "A" : "B";
-        return rec;
+        return SchemaMapping.VOTERS.map(lineInArray);
     }
     public static class ExperimentConfig {
         double levenshteinWeight;
@@ -197,112 +559,60 @@ public class ExpBlock {
        
         
         String word2VecModelPath = "GoogleNews-vectors-negative300.bin";
+        // Prefere o store mapeado em memória, se já tiver sido convertido com EmbeddingStore
+        if (new File("GoogleNews-vectors-negative300.emb").isFile()) {
+            word2VecModelPath = "GoogleNews-vectors-negative300.emb";
+        }
         SimilarityService.initialize(word2VecModelPath);
 
-        // ================== LOOP PARA EXECUTAR CADA EXPERIMENTO 10x ==================
-        for (int i = 0; i < configs.size(); i++) {
-            ExperimentConfig currentConfig = configs.get(i);
-            System.out.println("==================== CONFIGURAÇÃO " + (i + 1) + " ====================");
-
-            for (int j = 0; j < 10; j++) { // Loop para repetir cada experimento 10 vezes
-                System.out.println("\n--- EXPERIMENTO " + (i + 1) + ", EXECUÇÃO " + (j + 1) + " ---");
-
-                // Crie uma nova instância de ExpBlock para cada experimento
-                ExpBlock e = new ExpBlock(0.1, 2.0 / 3, 1000, currentConfig);
-
-                int recNoA = 0;
-                int recNoB = 0;
-                long startTime = System.currentTimeMillis();
-
-                String fileA = "C:\\Users\\Pichau\\Desktop\\PASTAS\\faculdade\\BCC\\11_periodo_2025_1\\ProjetoBD\\ExpBlockSemanthic\\target\\test_voters_A.txt";
-                String fileB = "C:\\Users\\Pichau\\Desktop\\PASTAS\\faculdade\\BCC\\11_periodo_2025_1\\ProjetoBD\\ExpBlockSemanthic\\target\\test_voters_B.txt";
-
-                try (CSVReader readerA = new CSVReader(new FileReader(fileA));
-                    CSVReader readerB = new CSVReader(new FileReader(fileB))) {
-
-                    String[] lineInArray1, lineInArray2;
-                    boolean fileAHasNext = true;
-                    boolean fileBHasNext = true;
-
-                    while (fileAHasNext || fileBHasNext) {
-                        if (fileAHasNext) {
-                            lineInArray1 = readerA.readNext();
-                            if (lineInArray1 != null) {
-                                if (lineInArray1.length >= 6) {
-                                    recNoA++;
-                                    Record rec1 = prepare(lineInArray1);
-                                    e.put(rec1);
-                                }
-                            } else {
-                                fileAHasNext = false;
-                            }
-                        }
-                        if (fileBHasNext) {
-                            lineInArray2 = readerB.readNext();
-                            if (lineInArray2 != null) {
-                                if (lineInArray2.length >= 6) {
-                                    recNoB++;
-                                    Record rec2 = prepare(lineInArray2);
-                                    e.put(rec2);
-                                }
-                            } else {
-                                fileBHasNext = false;
-                            }
-                        }
-                        if ((recNoA + recNoB) % 10000 == 0 && (recNoA + recNoB) > 0) {
-                            System.out.println("====== Processed " + (recNoA + recNoB) + " records. Identified " + e.matchingPairsNo + " matching pairs.");
-                        }
-                    }
-                } catch (IOException | CsvValidationException ex) {
-                    ex.printStackTrace();
-                }
+        String fileA = "C:\\Users\\Pichau\\Desktop\\PASTAS\\faculdade\\BCC\\11_periodo_2025_1\\ProjetoBD\\ExpBlockSemanthic\\target\\test_voters_A.txt";
+        String fileB = "C:\\Users\\Pichau\\Desktop\\PASTAS\\faculdade\\BCC\\11_periodo_2025_1\\ProjetoBD\\ExpBlockSemanthic\\target\\test_voters_B.txt";
 
-                long stopTime = System.currentTimeMillis();
-                long elapsedTime = stopTime - startTime;
-
-                // Crie um nome de arquivo único para este experimento e execução.
-                String outputFileName = "results_config_" + (i + 1) + "_exec_" + (j + 1) + ".txt";
-
-                try (FileWriter outputWriter = new FileWriter(outputFileName)) {
-                    double precision = 0.0;
-                    if ((e.matchingPairsNo + e.falsePositivesNo) > 0) {
-                        precision = (double) e.matchingPairsNo / (e.matchingPairsNo + e.falsePositivesNo);
-                    }
-                    double recall = (double) e.matchingPairsNo / e.trulyMatchingPairsNo;
-                
-                    String json = "{\n" +
-                            "  \"configIndex\": " + (i + 1) + ",\n" +
-                            "  \"executionIndex\": " + (j + 1) + ",\n" +
-                            "  \"configurations\": {\n" +
-                            "    \"levenshteinWeight\": " + currentConfig.levenshteinWeight + ",\n" +
-                            "    \"charEmbeddingWeight\": " + currentConfig.charEmbeddingWeight + ",\n" +
-                            "    \"soundexWeight\": " + currentConfig.soundexWeight + ",\n" +
-                            "    \"surnameWeight\": " + currentConfig.surnameWeight + ",\n" +
-                            "    \"nameWeight\": " + currentConfig.nameWeight + ",\n" +
-                            "    \"semanticSimilarityWeight\": " + currentConfig.semanticSimilarityWeight + ",\n" +
-                            "    \"syntacticSimilarityWeight\": " + currentConfig.syntacticSimilarityWeight + ",\n" +
-                            "    \"similarityThreshold\": " + currentConfig.similarityThreshold + ",\n" +
-                            "    \"nameSimilarityThreshold\": " + currentConfig.nameSimilarityThreshold + ",\n" +
-                            "    \"surnameSimilarityThreshold\": " + currentConfig.surnameSimilarityThreshold + "\n" +
-                            "  },\n" +
-                            "  \"results\": {\n" +
-                            "    \"elapsedTimeSeconds\": " + (elapsedTime / 1000.0) + ",\n" +
-                            "    \"totalRecordsProcessed\": " + (recNoA + recNoB) + ",\n" +
-                            "    \"matchingPairsNo\": " + e.matchingPairsNo + ",\n" +
-                            "    \"falsePositivesNo\": " + e.falsePositivesNo + ",\n" +
-                            "    \"totalPairsIdentified\": " + (e.matchingPairsNo + e.falsePositivesNo) + ",\n" +
-                            "    \"precision\": " + precision + ",\n" +
-                            "    \"recall\": " + recall + "\n" +
-                            "  }\n" +
-                            "}";
-                
-                    outputWriter.write(json);
-                
-                    System.out.println("Resultados da Configuração " + (i + 1) + ", Execução " + (j + 1) + " salvos em " + outputFileName);
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+        // Blocking LSH opcional: --lsh bandas,linhas,q (várias chaves por registro, sobre
+        // q-gramas do sobrenome); sem a opção, uma chave por registro.
+        // --shards n: cada execução num ShardedExpBlock de n threads
+        MinHash minHash = new MinHash();
+        int shards = 1;
+        int first = 0;
+        while (args.length >= first + 2 && args[first].startsWith("--")) {
+            if (args[first].equals("--lsh")) {
+                String[] lsh = args[first + 1].split(",");
+                minHash = new MinHash(Integer.parseInt(lsh[0]), Integer.parseInt(lsh[1]),
+                        lsh.length > 2 ? Integer.parseInt(lsh[2]) : 2);
+            } else if (args[first].equals("--shards")) {
+                shards = Integer.parseInt(args[first + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[first]);
+            }
+            first += 2;
+        }
+        int rest = args.length - first;
+
+        // ================== EXECUTA CADA EXPERIMENTO 10x ==================
+        // Os arquivos são lidos e preparados uma única vez; as execuções rodam em paralelo
+        // (ver ExperimentRunner) e os resultados ficam também em results.json
+        try {
+            ExperimentRunner runner;
+            if (rest >= 2) {
+                // Outros arquivos/esquemas: [--lsh b,r,q] [--shards n] [voters|imdb] arquivoA arquivoB
+                SchemaMapping schema = rest >= 3 ? SchemaMapping.named(args[first]) : SchemaMapping.VOTERS;
+                fileA = args[args.length - 2];
+                fileB = args[args.length - 1];
+                SchemaMapping mappingA = schema == SchemaMapping.IMDB ? schema.withOrigin("A") : schema;
+                SchemaMapping mappingB = schema == SchemaMapping.IMDB ? schema.withOrigin("B") : schema;
+                // Títulos e suas traduções: chaves semânticas além das por caracteres
+                SemanticBlocker semantic = schema == SchemaMapping.IMDB ? new SemanticBlocker(8, 8) : null;
+                try (RecordStream stream = new RecordStream(InterleavingPolicy.roundRobin(),
+                        new MappedFileSource(new File(fileA), mappingA), new MappedFileSource(new File(fileB), mappingB))) {
+                    runner = ExperimentRunner.load(stream, minHash, semantic);
                 }
+            } else {
+                runner = ExperimentRunner.load(fileA, fileB, minHash);
             }
+            runner.shards = shards;
+            runner.run(configs, 10);
+        } catch (IOException | InterruptedException ex) {
+            ex.printStackTrace();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,341 @@
+// ExperimentRunner.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * Runs every ExperimentConfig several times over the same input, concurrently.
+ *
+ * The two files are read and prepared once (features and blocking keys, through
+ * IngestPipeline) into a table of Records in the A/B order of ExpBlock.main. Each run
+ * then replays that table into its own ExpBlock, with its own seed and output files.
+ * The table is finished before any run starts: besides the keys, each record gets its
+ * features and its ground-truth id number, which Block and RecordStore would otherwise
+ * set lazily and without synchronization. From then on the engines only
+ * read the records, so all runs share them, along with the dictionary of names and surnames.
+ *
+ * With shards > 1 each run is a ShardedExpBlock of that many worker threads instead of
+ * a single ExpBlock, and the pool runs threads / shards of them at a time.
+ *
+ * Runs are executed on a fixed pool, and each one first reserves an estimate of the
+ * memory its blocks can reach (see estimateBytes) from a budget, so that configs with
+ * semantic scoring, which keep two embeddings per stored record, run fewer at a time.
+ *
+ * Every run writes results_config_i_exec_j.txt, with the same JSON as before, and its
+ * matches to matches_config_i_exec_j.txt; results.json gathers all runs at the end.
+ * The elapsed time of a run is its wall-clock time, so it includes contention with the
+ * runs executing next to it.
+ */
+public class ExperimentRunner {
+
+    // Bytes of a record stored in a RecordStore, besides its embeddings
+    private static final int STORED_RECORD_BYTES = 48;
+    // Bytes of a Block without records
+    private static final int BLOCK_BYTES = 256;
+
+    private final Record[] records;
+    private final int recNoA;
+    private final int recNoB;
+    private final MinHash minHash;
+
+    public double epsilon = 0.1;
+    public double q = 2.0 / 3;
+    public double delta = 0.1;
+    public int b = 1000;
+    public int threads = Runtime.getRuntime().availableProcessors();
+    // Shards of each run (see ShardedExpBlock); 1 runs a plain ExpBlock
+    public int shards = 1;
+    public long memoryBudget;
+    // The seed of run (i, j) is seed + 1000 * i + j
+    public long seed = 1;
+    public File outputDir = new File(".");
+    public int progressInterval = 100000;
+    // Denominator of the recall: the A x B pairs with the same ground-truth id, counted
+    // from the records; may be set instead, e.g. to a number known for the whole dataset
+    public int trulyMatchingPairsNo;
+
+    /**
+     * @param records the records in the order they are put, with their blocking keys set.
+     * @param minHash the blocking scheme the keys were computed with.
+     */
+    public ExperimentRunner(Record[] records, int recNoA, int recNoB, MinHash minHash) {
+        for (Record rec : records) {
+            // Escritos aqui, numa só thread, e não pelas execuções concorrentes
+            rec.getNameFeatures();
+            rec.getSurnameFeatures();
+            rec.getIdNumber();
+        }
+        this.records = records;
+        this.recNoA = recNoA;
+        this.recNoB = recNoB;
+        this.minHash = minHash;
+        this.trulyMatchingPairsNo = trulyMatchingPairs(records);
+        Runtime rt = Runtime.getRuntime();
+        // Por padrão, 3/4 da memória ainda livre depois de carregar a tabela
+        this.memoryBudget = (rt.maxMemory() - (rt.totalMemory() - rt.freeMemory())) / 4 * 3;
+    }
+
+    /** Number of pairs of an A and a B record with the same Record.getIdNo. */
+    static int trulyMatchingPairs(Record[] records) {
+        // idNo -> registros de A e de B
+        HashMap<String, int[]> counts = new HashMap<>();
+        for (Record rec : records) {
+            counts.computeIfAbsent(rec.getIdNo(), k -> new int[2])[rec.origin.equals("A") ? 0 : 1]++;
+        }
+        long pairs = 0;
+        for (int[] count : counts.values()) {
+            pairs += (long) count[0] * count[1];
+        }
+        return (int) Math.min(Integer.MAX_VALUE, pairs);
+    }
+
+    /** Reads and prepares both files once. */
+    public static ExperimentRunner load(String fileA, String fileB, MinHash minHash) throws IOException {
+        List<Record> table = new ArrayList<>();
+        int[] counts = new IngestPipeline(fileA, fileB, minHash).run(table::add);
+        return new ExperimentRunner(table.toArray(new Record[0]), counts[0], counts[1], minHash);
+    }
+
+    /**
+     * Reads a stream to its end, computing the blocking keys of its records, e.g. to run
+     * the experiments on another schema (see SchemaMapping).
+     */
+    public static ExperimentRunner load(RecordStream stream, MinHash minHash) throws IOException, InterruptedException {
+        return load(stream, minHash, null);
+    }
+
+    /** As above, with the keys of a SemanticBlocker if semantic is not null. */
+    public static ExperimentRunner load(RecordStream stream, MinHash minHash, SemanticBlocker semantic) throws IOException, InterruptedException {
+        List<Record> table = new ArrayList<>();
+        int[] counts = new int[2];
+        stream.run(rec -> {
+            if (semantic != null) {
+                semantic.keys(rec, minHash);
+            } else {
+                rec.getBlockingKeys(minHash);
+            }
+            table.add(rec);
+            counts[rec.origin.equals("A") ? 0 : 1]++;
+        });
+        return new ExperimentRunner(table.toArray(new Record[0]), counts[0], counts[1], minHash);
+    }
+
+    /** Outcome of one run. */
+    public static class Result {
+        public final int configIndex;
+        public final int executionIndex;
+        public final long seed;
+        public final ExperimentConfig config;
+        public double elapsedSeconds;
+        public int matchingPairsNo;
+        public int falsePositivesNo;
+        public int trulyMatchingPairsNo;
+        public int totalRecordsProcessed;
+        public EngineMetrics.Snapshot metrics;
+
+        Result(int configIndex, int executionIndex, long seed, ExperimentConfig config) {
+            this.configIndex = configIndex;
+            this.executionIndex = executionIndex;
+            this.seed = seed;
+            this.config = config;
+        }
+
+        public double precision() {
+            int identified = matchingPairsNo + falsePositivesNo;
+            return identified > 0 ? (double) matchingPairsNo / identified : 0.0;
+        }
+
+        public double recall() {
+            return trulyMatchingPairsNo > 0 ? (double) matchingPairsNo / trulyMatchingPairsNo : 0.0;
+        }
+
+        public String toJson() {
+            return "{\n" +
+                    "  \"configIndex\": " + configIndex + ",\n" +
+                    "  \"executionIndex\": " + executionIndex + ",\n" +
+                    "  \"seed\": " + seed + ",\n" +
+                    "  \"configurations\": {\n" +
+                    "    \"levenshteinWeight\": " + config.levenshteinWeight + ",\n" +
+                    "    \"charEmbeddingWeight\": " + config.charEmbeddingWeight + ",\n" +
+                    "    \"soundexWeight\": " + config.soundexWeight + ",\n" +
+                    "    \"surnameWeight\": " + config.surnameWeight + ",\n" +
+                    "    \"nameWeight\": " + config.nameWeight + ",\n" +
+                    "    \"semanticSimilarityWeight\": " + config.semanticSimilarityWeight + ",\n" +
+                    "    \"syntacticSimilarityWeight\": " + config.syntacticSimilarityWeight + ",\n" +
+                    "    \"similarityThreshold\": " + config.similarityThreshold + ",\n" +
+                    "    \"nameSimilarityThreshold\": " + config.nameSimilarityThreshold + ",\n" +
+                    "    \"surnameSimilarityThreshold\": " + config.surnameSimilarityThreshold + "\n" +
+                    "  },\n" +
+                    "  \"results\": {\n" +
+                    "    \"elapsedTimeSeconds\": " + elapsedSeconds + ",\n" +
+                    "    \"totalRecordsProcessed\": " + totalRecordsProcessed + ",\n" +
+                    "    \"matchingPairsNo\": " + matchingPairsNo + ",\n" +
+                    "    \"falsePositivesNo\": " + falsePositivesNo + ",\n" +
+                    "    \"totalPairsIdentified\": " + (matchingPairsNo + falsePositivesNo) + ",\n" +
+                    "    \"precision\": " + precision() + ",\n" +
+                    "    \"recall\": " + recall() + "\n" +
+                    "  },\n" +
+                    "  \"metrics\": " + metrics.toJson().replace("\n", "\n  ") + "\n" +
+                    "}";
+        }
+    }
+
+    /**
+     * Runs each config `repetitions` times and writes results.json.
+     * @return the results, ordered by config and execution.
+     */
+    public List<Result> run(List<ExperimentConfig> configs, int repetitions) throws IOException, InterruptedException {
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget >> 10));
+        Semaphore memory = new Semaphore(budgetKb, true);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads / shards), r -> {
+            Thread t = new Thread(r, "expblock-run");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < configs.size(); i++) {
+                ExperimentConfig config = configs.get(i);
+                int kb = (int) Math.min(budgetKb, Math.max(1, estimateBytes(config) >> 10));
+                for (int j = 0; j < repetitions; j++) {
+                    Result result = new Result(i + 1, j + 1, seed + 1000L * (i + 1) + (j + 1), config);
+                    futures.add(pool.submit(() -> {
+                        memory.acquire(kb);
+                        try {
+                            return execute(result);
+                        } finally {
+                            memory.release(kb);
+                        }
+                    }));
+                }
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IOException("Experiment run failed", e.getCause());
+                }
+            }
+            writeSummary(results);
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Upper bound of the memory held by the blocks of one run: b blocks of at most w
+     * records each, or every record under every key if the input is smaller.
+     */
+    long estimateBytes(ExperimentConfig config) {
+        int w = ExpBlock.recordsPerBlock(epsilon, q, delta);
+        long keys = records.length > 0 ? records[0].bKeys.length : 1;
+        long stored = Math.min((long) b * w, records.length * keys);
+        long perRecord = STORED_RECORD_BYTES;
+        if (config.semanticSimilarityWeight > 0.0 && records.length > 0) {
+            float[] embedding = records[0].getNameFeatures().embedding;
+            perRecord += 2L * Float.BYTES * (embedding != null ? embedding.length : 0);
+        }
+        return stored * perRecord + (long) b * BLOCK_BYTES;
+    }
+
+    private Result execute(Result result) throws IOException {
+        String name = "config_" + result.configIndex + "_exec_" + result.executionIndex;
+        String label = "[" + name + "] ";
+        System.out.println(label + "início (seed " + result.seed + ")");
+        long startTime = System.currentTimeMillis();
+        try (AsyncMatchSink sink = new AsyncMatchSink(new File(outputDir, "matches_" + name + ".txt"), AsyncMatchSink.Format.TEXT)) {
+            if (shards > 1) {
+                executeSharded(result, sink, label, startTime);
+            } else {
+                executeSingle(result, sink, label, startTime);
+            }
+        }
+        File output = new File(outputDir, "results_" + name + ".txt");
+        try (FileWriter out = new FileWriter(output)) {
+            out.write(result.toJson());
+        }
+        System.out.println(label + "Resultados salvos em " + output.getName());
+        return result;
+    }
+
+    private void executeSingle(Result result, MatchSink sink, String label, long startTime) throws IOException {
+        ExpBlock e = new ExpBlock(epsilon, q, b, result.config, sink);
+        e.delta = delta;
+        e.w = ExpBlock.recordsPerBlock(epsilon, q, delta);
+        e.minHash = minHash;
+        e.trulyMatchingPairsNo = trulyMatchingPairsNo;
+        e.setSeed(result.seed);
+        for (int n = 0; n < records.length; n++) {
+            e.putKeyed(records[n]);
+            if ((n + 1) % progressInterval == 0) {
+                EngineMetrics.Snapshot m = e.metricsSnapshot();
+                System.out.println(label + "Processed " + (n + 1) + " records. Identified " + e.matchingPairsNo + " matching pairs."
+                        + String.format(" (%.0f rec/s, put p99 %d us)", m.recordsPerSecond(), m.putLatency.percentile(0.99) / 1000));
+            }
+        }
+        // Antes do close, que esvazia o engine
+        result.metrics = e.metricsSnapshot();
+        e.close();
+        result.elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        result.matchingPairsNo = e.matchingPairsNo;
+        result.falsePositivesNo = e.falsePositivesNo;
+        result.trulyMatchingPairsNo = trulyMatchingPairsNo;
+        result.totalRecordsProcessed = recNoA + recNoB;
+    }
+
+    /** The same run on a ShardedExpBlock of shards workers. */
+    private void executeSharded(Result result, MatchSink sink, String label, long startTime) throws IOException {
+        ShardedExpBlock e = new ShardedExpBlock(epsilon, q, b, shards, result.config, sink);
+        try {
+            for (ExpBlock shard : e.shards) {
+                shard.delta = delta;
+                shard.w = ExpBlock.recordsPerBlock(epsilon, q, delta);
+            }
+            e.minHash = minHash;
+            e.setSeed(result.seed);
+            for (int n = 0; n < records.length; n++) {
+                e.putKeyed(records[n]);
+                if ((n + 1) % progressInterval == 0) {
+                    EngineMetrics.Snapshot m = e.metricsSnapshot();
+                    System.out.println(label + "Processed " + (n + 1) + " records. Identified " + e.getMatchingPairsNo() + " matching pairs."
+                            + String.format(" (%.0f rec/s)", m.recordsPerSecond()));
+                }
+            }
+        } finally {
+            // Espera os workers terminarem a fila
+            e.close();
+        }
+        result.metrics = e.metricsSnapshot();
+        result.elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        result.matchingPairsNo = (int) e.getMatchingPairsNo();
+        result.falsePositivesNo = (int) e.getFalsePositivesNo();
+        result.trulyMatchingPairsNo = trulyMatchingPairsNo;
+        result.totalRecordsProcessed = recNoA + recNoB;
+    }
+
+    private void writeSummary(List<Result> results) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n  \"runs\": [");
+        for (int i = 0; i < results.size(); i++) {
+            sb.append(i == 0 ? "\n    " : ",\n    ");
+            sb.append(results.get(i).toJson().replace("\n", "\n    "));
+        }
+        sb.append("\n  ]\n}\n");
+        try (FileWriter out = new FileWriter(new File(outputDir, "results.json"))) {
+            out.write(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+// FrequencySketch.java
+package gr.edu.ihu.expblock;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Count-min sketch estimating how often an item (given by its hash) has been seen
+ * recently. Every counter is halved once sampleSize increments have been recorded,
+ * so that the estimates age and follow changes in popularity.
+ *
+ * Increments are not atomic: under contention an update may occasionally be lost,
+ * which only makes an estimate slightly lower. That is acceptable for the admission
+ * and eviction heuristics this sketch serves.
+ */
+public class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private final int[] table;
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedItems the number of distinct items expected to be tracked at a time.
+     */
+    public FrequencySketch(int expectedItems) {
+        int width = Integer.highestOneBit(Math.max(16, expectedItems - 1)) << 1;
+        this.table = new int[DEPTH * width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    public void increment(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * (mask + 1) + ((h1 + i * h2) & mask);
+            if (table[index] < Integer.MAX_VALUE) {
+                table[index]++;
+            }
+        }
+        if (additions.incrementAndGet() == sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * @return the estimated number of recent occurrences of the item, never below the true count
+     * except for the effect of aging.
+     */
+    public int frequency(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[i * (mask + 1) + ((h1 + i * h2) & mask)]);
+        }
+        return min;
+    }
+
+    private void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions.addAndGet(-sampleSize / 2);
+    }
+
+    /** Writes the counters, for a Checkpointer; the sketch must not be in use meanwhile. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mask + 1);
+        out.writeInt(additions.get());
+        for (int v : table) out.writeInt(v);
+    }
+
+    /** Reads a sketch written by writeTo. */
+    static FrequencySketch readFrom(DataInput in) throws IOException {
+        FrequencySketch sketch = new FrequencySketch(in.readInt());
+        sketch.additions.set(in.readInt());
+        for (int i = 0; i < sketch.table.length; i++) sketch.table[i] = in.readInt();
+        return sketch;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
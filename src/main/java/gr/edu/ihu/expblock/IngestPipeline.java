@@ -0,0 +1,214 @@
+// IngestPipeline.java
+package gr.edu.ihu.expblock;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Staged ingest of the two voter files, so that reading and preparing records overlaps
+ * with blocking and matching:
+ *
+ * 1. one reader thread per file parses CSV lines into batches;
+ * 2. a pool of workers turns each batch into Records, computing their features and
+ *    blocking keys (ExpBlock.prepare and Record.getBlockingKeys);
+ * 3. the calling thread consumes the prepared records, alternating between the files
+ *    line by line exactly as ExpBlock.main did.
+ *
+ * Each file's batches are queued in order in a bounded queue, which applies backpressure
+ * to its reader when the consumer falls behind.
+ */
+public class IngestPipeline {
+
+    private static final Future<Record[]> END = CompletableFuture.completedFuture(null);
+
+    private final String fileA;
+    private final String fileB;
+    private final MinHash minHash;
+    private final int batchSize;
+    private final int workers;
+    private final int queueCapacity;
+
+    public IngestPipeline(String fileA, String fileB, MinHash minHash) {
+        this(fileA, fileB, minHash, 1024, Runtime.getRuntime().availableProcessors(), 16);
+    }
+
+    /**
+     * @param batchSize the number of lines per batch.
+     * @param workers the number of threads preparing records.
+     * @param queueCapacity the number of batches each file may have in flight.
+     */
+    public IngestPipeline(String fileA, String fileB, MinHash minHash, int batchSize, int workers, int queueCapacity) {
+        this.fileA = fileA;
+        this.fileB = fileB;
+        this.minHash = minHash;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Reads both files to the end, passing every valid record to sink on the calling thread.
+     * The records already carry their blocking keys in bKeys.
+     * @return the number of records read from file A and from file B.
+     */
+    public int[] run(Consumer<Record> sink) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "expblock-prepare");
+            t.setDaemon(true);
+            return t;
+        });
+        Reader readerA = new Reader(fileA, pool);
+        Reader readerB = new Reader(fileB, pool);
+        readerA.start();
+        readerB.start();
+        try {
+            int recNoA = 0;
+            int recNoB = 0;
+            Cursor a = new Cursor(readerA);
+            Cursor b = new Cursor(readerB);
+            boolean fileAHasNext = true;
+            boolean fileBHasNext = true;
+            while (fileAHasNext || fileBHasNext) {
+                if (fileAHasNext) {
+                    if (a.advance()) {
+                        if (a.current() != null) {
+                            recNoA++;
+                            sink.accept(a.current());
+                        }
+                    } else {
+                        fileAHasNext = false;
+                    }
+                }
+                if (fileBHasNext) {
+                    if (b.advance()) {
+                        if (b.current() != null) {
+                            recNoB++;
+                            sink.accept(b.current());
+                        }
+                    } else {
+                        fileBHasNext = false;
+                    }
+                }
+            }
+            return new int[]{recNoA, recNoB};
+        } finally {
+            readerA.interrupt();
+            readerB.interrupt();
+            pool.shutdownNow();
+        }
+    }
+
+    /** Prepares one batch of lines; lines with too few columns become null entries. */
+    private Record[] prepare(List<String[]> lines) {
+        Record[] records = new Record[lines.size()];
+        for (int i = 0; i < records.length; i++) {
+            String[] line = lines.get(i);
+            if (line.length >= 6) {
+                Record rec = ExpBlock.prepare(line);
+                rec.getBlockingKeys(minHash);
+                records[i] = rec;
+            }
+        }
+        return records;
+    }
+
+    /** Stage 1: parses one file and submits its batches to the preparation pool, in order. */
+    private class Reader extends Thread {
+        final String file;
+        final ExecutorService pool;
+        final ArrayBlockingQueue<Future<Record[]>> batches = new ArrayBlockingQueue<>(queueCapacity);
+        volatile Exception failure;
+
+        Reader(String file, ExecutorService pool) {
+            super("expblock-reader");
+            setDaemon(true);
+            this.file = file;
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            try (CSVReader reader = new CSVReader(new FileReader(file))) {
+                List<String[]> batch = new ArrayList<>(batchSize);
+                String[] line;
+                while ((line = reader.readNext()) != null) {
+                    batch.add(line);
+                    if (batch.size() == batchSize) {
+                        submit(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    submit(batch);
+                }
+            } catch (IOException | CsvValidationException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                batches.put(END);
+            } catch (InterruptedException e) {
+                // The consumer has stopped.
+            }
+        }
+
+        private void submit(List<String[]> batch) throws InterruptedException {
+            batches.put(pool.submit(() -> prepare(batch)));
+        }
+    }
+
+    /** Stage 3 view over one file: walks its prepared batches record by record. */
+    private static class Cursor {
+        final Reader reader;
+        Record[] batch = new Record[0];
+        int position = 0;
+        boolean ended = false;
+
+        Cursor(Reader reader) {
+            this.reader = reader;
+        }
+
+        /** Moves to the next line of the file; false at the end. */
+        boolean advance() throws IOException {
+            if (ended) return false;
+            position++;
+            while (position >= batch.length) {
+                Future<Record[]> next;
+                try {
+                    next = reader.batches.take();
+                    if (next == END) {
+                        ended = true;
+                        if (reader.failure != null) {
+                            throw new IOException("Failed reading " + reader.file, reader.failure);
+                        }
+                        return false;
+                    }
+                    batch = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading " + reader.file, e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed preparing records of " + reader.file, e.getCause());
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        Record current() {
+            return batch[position];
+        }
+    }
+}
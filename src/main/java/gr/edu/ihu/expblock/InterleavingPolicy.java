@@ -0,0 +1,73 @@
+// InterleavingPolicy.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+
+/**
+ * Decides from which of several sources a RecordStream takes its next record.
+ * Policies may keep state (e.g. whose turn it is), so each stream needs its own.
+ */
+public interface InterleavingPolicy {
+
+    /**
+     * @param sources the sources of the stream, some of which may have finished.
+     * @param timeoutMillis how long to wait if no record is available.
+     * @return the next record, or null if none was available in time.
+     */
+    Record next(RecordSource[] sources, long timeoutMillis) throws IOException, InterruptedException;
+
+    /**
+     * Strict alternation: one record from each source in turn, waiting for the source
+     * whose turn it is, and skipping the ones that have finished. With two files this is
+     * the A, B, A, B... order of ExpBlock.main, except that lines rejected by the
+     * SchemaMapping do not take a turn, as they do in IngestPipeline.
+     */
+    static InterleavingPolicy roundRobin() {
+        return new InterleavingPolicy() {
+            private int turn = 0;
+
+            @Override
+            public Record next(RecordSource[] sources, long timeoutMillis) throws IOException, InterruptedException {
+                for (int tried = 0; tried < sources.length; tried++) {
+                    RecordSource source = sources[turn];
+                    Record rec = source.poll(timeoutMillis);
+                    if (rec != null) {
+                        turn = (turn + 1) % sources.length;
+                        return rec;
+                    }
+                    if (!source.isFinished()) return null;
+                    turn = (turn + 1) % sources.length;
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Takes whatever is available, visiting the sources in turn without waiting on any
+     * of them, so that a quiet live feed does not hold back the others.
+     * @param idleMillis how long to pause when no source has a record.
+     */
+    static InterleavingPolicy firstAvailable(long idleMillis) {
+        return new InterleavingPolicy() {
+            private int turn = 0;
+
+            @Override
+            public Record next(RecordSource[] sources, long timeoutMillis) throws IOException, InterruptedException {
+                long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+                while (true) {
+                    for (int tried = 0; tried < sources.length; tried++) {
+                        RecordSource source = sources[turn];
+                        turn = (turn + 1) % sources.length;
+                        if (source.isFinished()) continue;
+                        Record rec = source.poll(0);
+                        if (rec != null) return rec;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return null;
+                    Thread.sleep(Math.min(idleMillis, Math.max(1, remaining / 1000000L)));
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+// Levenshtein.java
+package gr.edu.ihu.expblock;
+
+/**
+ * Levenshtein distance kernel shared by Block and SimilarityService.
+ *
+ * The dynamic programme keeps only two rolling rows, which are reused per thread,
+ * so a call does not allocate. When a maximum distance is given, only the diagonal
+ * band of width 2 * max + 1 is filled and the computation stops as soon as every
+ * cell of a row exceeds the bound.
+ */
+public final class Levenshtein {
+
+    private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[2][64]);
+
+    private Levenshtein() {
+    }
+
+    /**
+     * Calculates the exact Levenshtein distance between two strings.
+     */
+    public static int distance(CharSequence s, CharSequence t) {
+        return distance(s, t, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Calculates the Levenshtein distance between two strings, bounded by max.
+     * @param max the largest distance of interest (non-negative).
+     * @return the exact distance if it is at most max, otherwise some value greater than max.
+     */
+    public static int distance(CharSequence s, CharSequence t, int max) {
+        // Keep the shorter string along the rows.
+        if (s.length() < t.length()) {
+            CharSequence tmp = s;
+            s = t;
+            t = tmp;
+        }
+        int n = s.length();
+        int m = t.length();
+        if (n - m > max) {
+            return n - m;
+        }
+        if (m == 0) {
+            return n;
+        }
+        // The distance never exceeds n, so a larger bound is no bound at all.
+        if (max > n) {
+            max = n;
+        }
+        final int inf = max + 1;
+
+        int[][] rows = ROWS.get();
+        if (rows[0].length < m + 2) {
+            rows[0] = new int[m + 2];
+            rows[1] = new int[m + 2];
+        }
+        int[] prev = rows[0];
+        int[] cur = rows[1];
+
+        int firstTo = Math.min(m, max);
+        for (int j = 0; j <= firstTo; j++) {
+            prev[j] = j;
+        }
+        if (firstTo < m) {
+            prev[firstTo + 1] = inf;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - max);
+            int to = Math.min(m, i + max);
+            char c = s.charAt(i - 1);
+            cur[from - 1] = from == 1 ? i : inf;
+            int rowMin = cur[from - 1];
+            for (int j = from; j <= to; j++) {
+                int d = prev[j - 1] + (c == t.charAt(j - 1) ? 0 : 1);
+                int ins = cur[j - 1] + 1;
+                int del = prev[j] + 1;
+                if (ins < d) d = ins;
+                if (del < d) d = del;
+                cur[j] = d;
+                if (d < rowMin) rowMin = d;
+            }
+            if (to < m) {
+                cur[to + 1] = inf;
+            }
+            if (rowMin > max) {
+                return inf;
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+}
@@ -0,0 +1,134 @@
+// LineParser.java
+package gr.edu.ihu.expblock;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits comma-separated lines directly inside a ByteBuffer, typically a memory-mapped
+ * region of the input file. A line is only located: the parser keeps the offsets of its
+ * fields in reused arrays, and a String is built on request for the fields a
+ * SchemaMapping actually uses, so no line String or String[] is allocated.
+ *
+ * Fields may be quoted as in CSV ("a, b" and "" for a quote inside quotes), and a
+ * trailing \r is dropped. A parser is not thread-safe.
+ */
+final class LineParser {
+
+    private static final int MAX_FIELDS = 64;
+
+    private ByteBuffer buf;
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private final boolean[] quoted = new boolean[MAX_FIELDS];
+    private int fields;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Locates the line starting at buf.position() and moves the position past it.
+     * @param atEnd true if no bytes will follow buf's limit, so that a last line
+     * without a terminator is complete.
+     * @return false, leaving the position unchanged, if buf holds no complete line.
+     */
+    boolean next(ByteBuffer buf, boolean atEnd) {
+        int pos = buf.position();
+        int limit = buf.limit();
+        if (pos >= limit) return false;
+        this.buf = buf;
+        fields = 0;
+        int start = pos;
+        boolean inQuotes = false;
+        boolean fieldQuoted = buf.get(pos) == '"';
+        int i = pos;
+        for (; i < limit; i++) {
+            byte c = buf.get(i);
+            if (c == '"') {
+                if (i == start) {
+                    inQuotes = true;
+                } else if (inQuotes) {
+                    // "" dentro de aspas é uma aspa escapada
+                    if (i + 1 < limit && buf.get(i + 1) == '"') {
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                }
+            } else if (!inQuotes) {
+                if (c == ',') {
+                    addField(start, i, fieldQuoted);
+                    start = i + 1;
+                    fieldQuoted = start < limit && buf.get(start) == '"';
+                } else if (c == '\n') {
+                    break;
+                }
+            }
+        }
+        if (i == limit && !atEnd) {
+            fields = 0;
+            return false;
+        }
+        int end = i;
+        if (end > start && buf.get(end - 1) == '\r') end--;
+        addField(start, end, fieldQuoted);
+        buf.position(i < limit ? i + 1 : limit);
+        return true;
+    }
+
+    private void addField(int start, int end, boolean isQuoted) {
+        if (fields < MAX_FIELDS) {
+            starts[fields] = start;
+            ends[fields] = end;
+            quoted[fields] = isQuoted;
+            fields++;
+        }
+    }
+
+    int fieldCount() {
+        return fields;
+    }
+
+    /** Field i of the current line, unquoted; null if the line has fewer fields. */
+    String field(int i) {
+        if (i >= fields) return null;
+        int start = starts[i];
+        int end = ends[i];
+        if (!quoted[i]) {
+            return decode(start, end);
+        }
+        // Remove as aspas externas e desfaz as aspas duplicadas
+        int n = 0;
+        ensureScratch(end - start);
+        int last = end > start + 1 && buf.get(end - 1) == '"' ? end - 1 : end;
+        for (int k = start + 1; k < last; k++) {
+            byte c = buf.get(k);
+            scratch[n++] = c;
+            if (c == '"' && k + 1 < last && buf.get(k + 1) == '"') k++;
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The raw text from field i to the end of the line, commas included, for a last
+     * column that may itself contain commas (e.g. a movie title).
+     */
+    String rest(int i) {
+        if (i >= fields) return null;
+        if (i == fields - 1) return field(i);
+        return decode(starts[i], ends[fields - 1]);
+    }
+
+    private String decode(int start, int end) {
+        int n = end - start;
+        ensureScratch(n);
+        for (int k = 0; k < n; k++) {
+            scratch[k] = buf.get(start + k);
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private void ensureScratch(int n) {
+        if (scratch.length < n) {
+            scratch = new byte[Math.max(n, 2 * scratch.length)];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+// LongSet.java
+package gr.edu.ihu.expblock;
+
+/**
+ * Minimal open-addressing set of positive longs, used to remember the records already
+ * compared during one put without boxing them. Not thread-safe; see Shared.
+ */
+public class LongSet {
+
+    /**
+     * A LongSet several threads may add to, for a record whose keys are handled by
+     * different workers (see ShardedExpBlock): add is atomic, so exactly one of them
+     * sees true for a value.
+     */
+    public static final class Shared extends LongSet {
+        @Override
+        public synchronized boolean add(long value) {
+            return super.add(value);
+        }
+    }
+
+    private long[] table = new long[16];
+    private int size = 0;
+
+    /** @return true if value was not in the set. Value must be non-zero. */
+    public boolean add(long value) {
+        if (2 * (size + 1) > table.length) {
+            grow();
+        }
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+        while (table[i] != 0) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        size = 0;
+        for (long value : old) {
+            if (value != 0) add(value);
+        }
+    }
+
+    private static int mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        return (int) (z ^ (z >>> 32));
+    }
+}
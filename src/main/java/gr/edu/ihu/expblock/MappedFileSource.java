@@ -0,0 +1,81 @@
+// MappedFileSource.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a complete file through memory-mapped windows, splitting its lines in place
+ * with a LineParser. Only one window is mapped at a time, so memory stays bounded on
+ * files of any size; a line cut by the end of a window is read again at the start of
+ * the next one.
+ */
+public class MappedFileSource implements RecordSource {
+
+    private static final long WINDOW = 64L << 20;
+
+    private final File file;
+    private final SchemaMapping mapping;
+    private final FileChannel channel;
+    private final long size;
+    private final LineParser parser = new LineParser();
+    private MappedByteBuffer window;
+    // File offset of the start of window
+    private long windowStart = 0;
+    private boolean finished = false;
+    // Lines skipped because they have too few columns
+    long skipped = 0;
+
+    public MappedFileSource(File file, SchemaMapping mapping) throws IOException {
+        this.file = file;
+        this.mapping = mapping;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        map(0);
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+    }
+
+    @Override
+    public Record poll(long timeoutMillis) throws IOException {
+        while (!finished) {
+            boolean lastWindow = windowStart + window.limit() == size;
+            if (parser.next(window, lastWindow)) {
+                Record rec = mapping.map(parser);
+                if (rec != null) return rec;
+                skipped++;
+            } else if (lastWindow) {
+                finished = true;
+            } else {
+                long next = windowStart + window.position();
+                if (next == windowStart) {
+                    throw new IOException("Line longer than " + WINDOW + " bytes in " + file + " at offset " + next);
+                }
+                map(next);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+}
@@ -0,0 +1,24 @@
+// MatchSink.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+
+/**
+ * Receives the matching pairs found by ExpBlock. accept is called on the matching
+ * thread (or threads, with ShardedExpBlock), so implementations must be thread-safe
+ * and must not do I/O there.
+ */
+public interface MatchSink extends AutoCloseable {
+
+    /**
+     * Reports a true match between a stored record and the incoming one.
+     */
+    void accept(Record existing, Record incoming, double score);
+
+    /** Waits until every match accepted so far has been written. */
+    void flush() throws IOException;
+
+    /** Flushes the pending matches and releases the output. */
+    @Override
+    void close() throws IOException;
+}
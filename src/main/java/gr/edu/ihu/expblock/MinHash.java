@@ -8,18 +8,63 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 /**
 * A simple MinHash implementation inspired by https://github.com/jmhodges/minhash
 *
+* Besides the original single-hash key (hash), it can compute k = bands * rows
+* MinHash permutations over the character q-grams of a string and derive one LSH
+* key per band (bandKeys), so that similar strings share at least one key with
+* high probability.
+*
 * @author tpeng (pengtaoo@gmail.com)
 */
 public class MinHash {
     
- 
+    // Fixed seed: the same configuration must give the same keys in every run and shard.
+    private static final long SEED = 0x9E3779B97F4A7C15L;
 
     private HashFunction hash = Hashing.murmur3_32_fixed();
 
+    public final int bands;
+    public final int rows;
+    public final int q;
+    private final int[] seeds;
+    private final ThreadLocal<int[]> signatures;
+
+    /**
+     * Creates a MinHash producing the original single key per string.
+     */
+    public MinHash() {
+        this(1, 0, 0);
+    }
+
+    /**
+     * Creates a banded MinHash over character q-grams.
+     * @param bands the number of LSH bands, i.e. keys per string.
+     * @param rows the number of permutations combined into each band key.
+     * @param q the length of the q-grams.
+     */
+    public MinHash(int bands, int rows, int q) {
+        this.bands = bands;
+        this.rows = rows;
+        this.q = q;
+        this.seeds = new int[bands * rows];
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextInt();
+        }
+        this.signatures = ThreadLocal.withInitial(() -> new int[seeds.length]);
+    }
+
+    /**
+     * @return true if this instance derives several band keys instead of the original key.
+     */
+    public boolean isBanded() {
+        return rows > 0;
+    }
+
     public String hash(String string) {
         int min = Integer.MAX_VALUE;
         for (int i=0; i<string.length(); i++) {
@@ -32,6 +77,59 @@ public class MinHash {
         return Integer.toHexString(min)+string.charAt(0) ;
     }
 
+    /**
+     * Computes the bands * rows MinHash values of the q-grams of a string into sig,
+     * without allocating. A string shorter than q is treated as a single q-gram.
+     */
+    public void signature(CharSequence s, int[] sig) {
+        int k = seeds.length;
+        for (int i = 0; i < k; i++) {
+            sig[i] = Integer.MAX_VALUE;
+        }
+        int grams = Math.max(1, s.length() - q + 1);
+        for (int g = 0; g < grams; g++) {
+            int code = 0;
+            int end = Math.min(s.length(), g + q);
+            for (int j = g; j < end; j++) {
+                code = 31 * code + s.charAt(j);
+            }
+            int base = mix(code);
+            for (int i = 0; i < k; i++) {
+                int h = mix(base ^ seeds[i]);
+                if (h < sig[i]) {
+                    sig[i] = h;
+                }
+            }
+        }
+    }
+
+    /**
+     * Derives the LSH keys of a string: the signature is cut into bands of rows values
+     * and each band is hashed into a key prefixed by its band number.
+     */
+    public String[] bandKeys(CharSequence s) {
+        int[] sig = signatures.get();
+        signature(s, sig);
+        String[] keys = new String[bands];
+        for (int b = 0; b < bands; b++) {
+            int h = b;
+            for (int r = 0; r < rows; r++) {
+                h = 31 * h + sig[b * rows + r];
+            }
+            keys[b] = b + ":" + Integer.toHexString(mix(h));
+        }
+        return keys;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
     public static void main(String... args) {
         MinHash minHash = new MinHash();
         System.out.println(minHash.hash("Dimitris"));
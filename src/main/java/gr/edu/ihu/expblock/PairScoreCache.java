@@ -0,0 +1,134 @@
+// PairScoreCache.java
+package gr.edu.ihu.expblock;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo of the Levenshtein distance between two dictionary strings, keyed on
+ * the pair of their StringDictionary ids. Names and surnames repeat heavily across both
+ * sources, so the same pair of strings is compared over and over in different blocks.
+ *
+ * The distance is the only component of the score that is expensive and independent of
+ * the ExperimentConfig: the char-mask Jaccard is two bit counts on the dictionary's
+ * TextFeatures, and the semantic cosines are computed for a whole side at once by
+ * EmbeddingMatrix.dot. Since Block asks for distances bounded by a maximum that depends
+ * on the thresholds, an entry holds either the exact distance or a lower bound of it,
+ * and a bounded lookup is answered from it whenever that is enough.
+ *
+ * The table is direct-mapped over two long arrays, 16 bytes per slot, with no locks and
+ * no allocation: each slot stores key ^ value and value, and a read only counts as a hit
+ * if they are consistent, so a slot overwritten concurrently is seen as a miss.
+ * The arrays are allocated on the first lookup, so a process that never compares a pair
+ * does not pay for them. The shared NAMES and SURNAMES tables take their size from the
+ * expblock.pairCache.bytes system property (32 MB each by default), or from setMaxBytes
+ * before that first lookup.
+ */
+public class PairScoreCache {
+
+    private static final int SLOT_BYTES = 16;
+    // Bit of the value set when the distance is exact; otherwise the value is a lower bound
+    private static final long EXACT = 1L << 32;
+
+    /** Names and surnames have separate tables, so that their hit rates can be told apart. */
+    static final PairScoreCache NAMES = new PairScoreCache(Long.getLong("expblock.pairCache.bytes", 32L << 20));
+    static final PairScoreCache SURNAMES = new PairScoreCache(Long.getLong("expblock.pairCache.bytes", 32L << 20));
+
+    private static final class Table {
+        final long[] checks;
+        final long[] values;
+        final int mask;
+
+        Table(int capacity) {
+            this.checks = new long[capacity];
+            this.values = new long[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private long maxBytes;
+    private volatile Table table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+
+    /** @param maxBytes the size of the table, rounded down to a power of two of slots. */
+    public PairScoreCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the size of the table, e.g. of NAMES and SURNAMES from the engine setup.
+     * @throws IllegalStateException if the table is already in use.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (table != null) {
+            throw new IllegalStateException("PairScoreCache already allocated with " + maxBytes() + " bytes");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /** The size of the table, allocated or not. */
+    public synchronized long maxBytes() {
+        return table != null ? (long) table.values.length * SLOT_BYTES : maxBytes;
+    }
+
+    private synchronized Table allocate() {
+        if (table == null) {
+            long slots = Math.max(16, Long.highestOneBit(maxBytes / SLOT_BYTES));
+            table = new Table((int) Math.min(slots, 1 << 30));
+        }
+        return table;
+    }
+
+    /**
+     * The Levenshtein distance between the strings with dictionary ids id1 and id2,
+     * bounded by max as Levenshtein.distance(s1, s2, max). Ids must be different.
+     */
+    public int distance(int id1, String s1, int id2, String s2, int max) {
+        long key = id1 < id2 ? ((long) id1 << 32) | (id2 & 0xFFFFFFFFL) : ((long) id2 << 32) | (id1 & 0xFFFFFFFFL);
+        Table t = table;
+        if (t == null) {
+            t = allocate();
+        }
+        long[] checks = t.checks;
+        long[] values = t.values;
+        int slot = index(key, t.mask);
+        long value = values[slot];
+        if ((checks[slot] ^ value) == key && value != 0) {
+            int d = (int) value;
+            if ((value & EXACT) != 0) {
+                hits.increment();
+                return d;
+            }
+            if (max < d) {
+                // Já se sabe que a distância excede max
+                hits.increment();
+                return d;
+            }
+        }
+        misses.increment();
+        int d = Levenshtein.distance(s1, s2, max);
+        long stored = d <= max ? EXACT | d : (long) max + 1;
+        long previous = values[slot];
+        if (previous == 0) {
+            entries.increment();
+        } else if ((checks[slot] ^ previous) != key) {
+            evictions.increment();
+        }
+        values[slot] = stored;
+        checks[slot] = key ^ stored;
+        return d;
+    }
+
+    private static int index(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public EmbeddingCache.Stats stats() {
+        long n = entries.sum();
+        return new EmbeddingCache.Stats(hits.sum(), misses.sum(), evictions.sum(), 0,
+                (int) n, n * SLOT_BYTES);
+    }
+}
@@ -1,6 +1,8 @@
 // Record.java
 package gr.edu.ihu.expblock;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a single record from a data source, containing personal information
  * used for entity resolution.
@@ -9,6 +11,8 @@ package gr.edu.ihu.expblock;
  */
 public class Record {
 
+    private static final AtomicLong SEQUENCE = new AtomicLong(1);
+
     public String id;
     public String name;
     public String surname;
@@ -18,11 +22,24 @@ public class Record {
     public int evictions = 0;
     public int survivals = 0;
     public String bKey = "";
+    public String[] bKeys;
+    public TextFeatures nameFeatures;
+    public TextFeatures surnameFeatures;
+    // Unique number of this record in the process, to recognize it inside a RecordStore;
+    // kept by the copies rebuilt from a store, so a stored record keeps its identity
+    final long seq;
+    private long idNumber = -1;
 
     /**
      * Default constructor.
      */
     public Record() {
+        this.seq = SEQUENCE.getAndIncrement();
+    }
+
+    /** A copy of a stored record (see RecordStore.record), with the seq of the original. */
+    Record(long seq) {
+        this.seq = seq;
     }
 
     /**
@@ -38,6 +55,51 @@ public class Record {
         return this.bKey;
     }
 
+    /**
+     * Generates all the blocking keys of this record. With a banded MinHash there is
+     * one key per LSH band, each combining a band hash of the normalized surname's
+     * q-grams with the postal code; otherwise the single key of getBlockingKey.
+     * @param minHash The MinHash instance to use for hashing the surname.
+     * @return the keys, also kept in bKeys (bKey holds the first one).
+     */
+    public String[] getBlockingKeys(MinHash minHash) {
+        if (!minHash.isBanded()) {
+            this.bKeys = new String[]{getBlockingKey(minHash)};
+            return this.bKeys;
+        }
+        String normalized = getSurnameFeatures().normalized;
+        String[] keys = minHash.bandKeys(normalized.isEmpty() ? surname : normalized);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keys[i] + "_" + poBox;
+        }
+        this.bKeys = keys;
+        this.bKey = keys[0];
+        return keys;
+    }
+
+    /**
+     * Precomputes the similarity features of the name and surname. Called once at
+     * ingest time; the features are computed lazily by the getters otherwise.
+     */
+    public void computeFeatures() {
+        this.nameFeatures = SimilarityService.extractFeatures(name);
+        this.surnameFeatures = SimilarityService.extractFeatures(surname);
+    }
+
+    public TextFeatures getNameFeatures() {
+        if (nameFeatures == null) {
+            nameFeatures = SimilarityService.extractFeatures(name);
+        }
+        return nameFeatures;
+    }
+
+    public TextFeatures getSurnameFeatures() {
+        if (surnameFeatures == null) {
+            surnameFeatures = SimilarityService.extractFeatures(surname);
+        }
+        return surnameFeatures;
+    }
+
     /**
      * Extracts the numeric part of the ID, which is used for ground-truth matching.
      * It assumes an ID format like 'a123_1' or 'b456', returning '123' or '456'.
@@ -51,6 +113,16 @@ public class Record {
     }
     
 
+    /**
+     * The ground-truth id of getIdNo as a number, see RecordStore.idNumber.
+     */
+    public long getIdNumber() {
+        if (idNumber < 0) {
+            idNumber = RecordStore.idNumber(getIdNo());
+        }
+        return idNumber;
+    }
+
     public String getId() {
         return id;
     }
@@ -0,0 +1,27 @@
+// RecordSource.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+
+/**
+ * A stream of records, from a file, a growing file, standard input or a directory.
+ * Records are returned with their features computed, but without blocking keys.
+ *
+ * Sources are polled, so that a RecordStream can interleave several of them without a
+ * thread per source, and live sources never end until they are closed. A source is
+ * used by one thread at a time.
+ */
+public interface RecordSource extends AutoCloseable {
+
+    /**
+     * @param timeoutMillis how long to wait for a record if none is available yet.
+     * @return the next record, or null if none arrived in time or the source has finished.
+     */
+    Record poll(long timeoutMillis) throws IOException, InterruptedException;
+
+    /** True once the source has ended and all its records have been returned. */
+    boolean isFinished();
+
+    @Override
+    void close() throws IOException;
+}
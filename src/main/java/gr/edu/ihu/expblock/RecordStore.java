@@ -0,0 +1,233 @@
+// RecordStore.java
+package gr.edu.ihu.expblock;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar storage of the records on one side of a Block. Instead of Record objects,
+ * with their seven Strings and features, it keeps parallel arrays of what matching
+ * needs: dictionary ids of the name and surname (see StringDictionary), the numeric
+ * ground-truth id, the record id for reporting, the blocking keys, and, when semantic
+ * scoring is on, the embeddings as contiguous matrices. Scanning a side reads a few
+ * primitive arrays, and a stored record is three small objects less for the GC to trace.
+ *
+ * Removal moves the last record into the freed position, in O(1).
+ */
+final class RecordStore {
+
+    private static final StringDictionary DICTIONARY = StringDictionary.SHARED;
+    // Flag of the idNumbers that are hashes of a non-numeric idNo
+    private static final long HASHED = 1L << 62;
+
+    final String origin;
+    int size = 0;
+    String[] ids = new String[4];
+    long[] idNumbers = new long[4];
+    int[] nameIds = new int[4];
+    int[] surnameIds = new int[4];
+    long[] seqs = new long[4];
+    String[][] keys = new String[4][];
+    // Row i <-> record i; null when semantic scoring is off
+    final EmbeddingMatrix nameEmbeddings;
+    final EmbeddingMatrix surnameEmbeddings;
+
+    RecordStore(String origin, boolean embeddings) {
+        this.origin = origin;
+        this.nameEmbeddings = embeddings ? new EmbeddingMatrix() : null;
+        this.surnameEmbeddings = embeddings ? new EmbeddingMatrix() : null;
+    }
+
+    /** Takes a dictionary reference to the record's name; see add(Record, int, int). */
+    static int acquireName(Record rec) {
+        return DICTIONARY.acquire(rec.name, rec.getNameFeatures());
+    }
+
+    static int acquireSurname(Record rec) {
+        return DICTIONARY.acquire(rec.surname, rec.getSurnameFeatures());
+    }
+
+    static void release(int id) {
+        DICTIONARY.release(id);
+    }
+
+    static TextFeatures features(int id) {
+        return DICTIONARY.features(id);
+    }
+
+    static String text(int id) {
+        return DICTIONARY.text(id);
+    }
+
+    /**
+     * The ground-truth id of Record.getIdNo as a number. Non-numeric ids are hashed and
+     * flagged, and must be confirmed with sameEntity.
+     */
+    static long idNumber(String idNo) {
+        int n = idNo.length();
+        if (n > 0 && n <= 18) {
+            long value = 0;
+            int i = 0;
+            for (; i < n; i++) {
+                char c = idNo.charAt(i);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+            }
+            if (i == n) return value;
+        }
+        return HASHED | (idNo.hashCode() & 0xFFFFFFFFL);
+    }
+
+    /** True if stored record i and rec have the same ground-truth id. */
+    boolean sameEntity(int i, Record rec) {
+        long number = rec.getIdNumber();
+        if (idNumbers[i] != number) return false;
+        if ((number & HASHED) == 0) return true;
+        return idNo(ids[i]).equals(rec.getIdNo());
+    }
+
+    private static String idNo(String id) {
+        int underscore = id.indexOf('_');
+        return underscore > 0 ? id.substring(1, underscore) : id.substring(1);
+    }
+
+    void add(Record rec) {
+        add(rec, acquireName(rec), acquireSurname(rec));
+    }
+
+    /**
+     * Stores rec with the dictionary ids of its name and surname, taking over the
+     * references the caller acquired for them; swapRemove gives them back.
+     */
+    void add(Record rec, int nameId, int surnameId) {
+        add(rec.id, rec.getIdNumber(), nameId, surnameId, rec.seq, rec.bKeys);
+    }
+
+    private void add(String id, long idNumber, int nameId, int surnameId, long seq, String[] recordKeys) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        idNumbers[size] = idNumber;
+        nameIds[size] = nameId;
+        surnameIds[size] = surnameId;
+        seqs[size] = seq;
+        keys[size] = recordKeys;
+        if (nameEmbeddings != null) {
+            nameEmbeddings.add(features(nameId).embedding);
+            surnameEmbeddings.add(features(surnameId).embedding);
+        }
+        size++;
+    }
+
+    /**
+     * Writes all the records, as dictionary ids rather than text, so they can only be read
+     * back by this process (see ColdTier). The written copy holds the dictionary references
+     * of the records along with the store: the caller either clears the store, handing
+     * them over to the copy, or gives them back with releaseSerialized if it drops it.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(ids[i]);
+            out.writeLong(idNumbers[i]);
+            out.writeInt(nameIds[i]);
+            out.writeInt(surnameIds[i]);
+            out.writeLong(seqs[i]);
+            out.writeInt(keys[i].length);
+            for (String key : keys[i]) {
+                out.writeUTF(key);
+            }
+        }
+    }
+
+    /** Appends the records written by writeTo, taking over the references of the copy. */
+    void readFrom(DataInput in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String id = in.readUTF();
+            long idNumber = in.readLong();
+            int nameId = in.readInt();
+            int surnameId = in.readInt();
+            long seq = in.readLong();
+            String[] recordKeys = new String[in.readInt()];
+            for (int k = 0; k < recordKeys.length; k++) {
+                recordKeys[k] = in.readUTF();
+            }
+            add(id, idNumber, nameId, surnameId, seq, recordKeys);
+        }
+    }
+
+    /** Gives back the dictionary references of the records of a copy written by writeTo. */
+    static void releaseSerialized(DataInput in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            in.readUTF();
+            in.readLong();
+            release(in.readInt());
+            release(in.readInt());
+            in.readLong();
+            int keyNo = in.readInt();
+            for (int k = 0; k < keyNo; k++) {
+                in.readUTF();
+            }
+        }
+    }
+
+    /** Removes record i by moving the last record into its place. */
+    void swapRemove(int i) {
+        int last = size - 1;
+        release(nameIds[i]);
+        release(surnameIds[i]);
+        ids[i] = ids[last];
+        idNumbers[i] = idNumbers[last];
+        nameIds[i] = nameIds[last];
+        surnameIds[i] = surnameIds[last];
+        seqs[i] = seqs[last];
+        keys[i] = keys[last];
+        ids[last] = null;
+        keys[last] = null;
+        if (nameEmbeddings != null) {
+            nameEmbeddings.swapRemove(i);
+            surnameEmbeddings.swapRemove(i);
+        }
+        size = last;
+    }
+
+    /** Removes all the records, giving back their dictionary references. */
+    void clear() {
+        while (size > 0) {
+            swapRemove(size - 1);
+        }
+    }
+
+    /**
+     * Rebuilds stored record i as a Record, for reporting and checkpoints. Only the
+     * fields kept by the store are set: id, name, surname, origin and blocking keys, and
+     * the seq of the original record.
+     */
+    Record record(int i) {
+        Record rec = new Record(seqs[i]);
+        rec.id = ids[i];
+        rec.name = text(nameIds[i]);
+        rec.surname = text(surnameIds[i]);
+        rec.origin = origin;
+        rec.nameFeatures = features(nameIds[i]);
+        rec.surnameFeatures = features(surnameIds[i]);
+        rec.bKeys = keys[i];
+        rec.bKey = keys[i] != null && keys[i].length > 0 ? keys[i][0] : "";
+        return rec;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        idNumbers = Arrays.copyOf(idNumbers, capacity);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        surnameIds = Arrays.copyOf(surnameIds, capacity);
+        seqs = Arrays.copyOf(seqs, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+    }
+}
@@ -0,0 +1,167 @@
+// RecordStream.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * Any number of RecordSources merged into one stream by an InterleavingPolicy. The
+ * stream ends when every source has finished, or when stop() is called; with live
+ * sources (tailing, stdin, directory) it runs until stopped.
+ *
+ * main links live feeds with a single ExpBlock, clustering the matches into entities as
+ * they are found (see EntityClusters):
+ *
+ *   RecordStream [--schema voters|imdb] [--policy roundrobin|available] source...
+ *
+ * where each source is a file path, tail:path (follow a growing file), dir:path[:glob]
+ * (read the files moved into a directory) or - (standard input). With the imdb schema
+ * the sources are assigned to A and B in the order given.
+ */
+public class RecordStream implements AutoCloseable {
+
+    // Limite de espera de cada chamada à política, para que stop() seja atendido logo
+    private static final long POLL_MILLIS = 100;
+
+    private final RecordSource[] sources;
+    private final InterleavingPolicy policy;
+    private volatile boolean stopped = false;
+
+    public RecordStream(InterleavingPolicy policy, RecordSource... sources) {
+        this.policy = policy;
+        this.sources = sources;
+    }
+
+    public RecordStream(InterleavingPolicy policy, List<RecordSource> sources) {
+        this(policy, sources.toArray(new RecordSource[0]));
+    }
+
+    /** @return the next record, waiting for one; null once the stream has ended. */
+    public Record next() throws IOException, InterruptedException {
+        while (!stopped && !finished()) {
+            Record rec = policy.next(sources, POLL_MILLIS);
+            if (rec != null) return rec;
+        }
+        return null;
+    }
+
+    private boolean finished() {
+        for (RecordSource source : sources) {
+            if (!source.isFinished()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Passes every record to sink on the calling thread until the stream ends.
+     * @return the number of records.
+     */
+    public long run(Consumer<Record> sink) throws IOException, InterruptedException {
+        long n = 0;
+        Record rec;
+        while ((rec = next()) != null) {
+            sink.accept(rec);
+            n++;
+        }
+        return n;
+    }
+
+    /** Makes the stream end after the record in progress; may be called from any thread. */
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (RecordSource source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /** Parses a source argument of main; see the class comment. */
+    static RecordSource source(String spec, SchemaMapping mapping) throws IOException {
+        if (spec.equals("-")) {
+            return StreamSource.stdin(mapping);
+        }
+        if (spec.startsWith("tail:")) {
+            return new TailingFileSource(new File(spec.substring(5)), mapping, true, 200);
+        }
+        if (spec.startsWith("dir:")) {
+            String path = spec.substring(4);
+            int colon = path.lastIndexOf(':');
+            // Não confunde a letra de unidade do Windows (C:\...) com o glob
+            if (colon > 1) {
+                return new DirectoryWatchSource(new File(path.substring(0, colon)), path.substring(colon + 1), mapping);
+            }
+            return new DirectoryWatchSource(new File(path), "*", mapping);
+        }
+        return new MappedFileSource(new File(spec), mapping);
+    }
+
+    public static void main(String[] args) throws Exception {
+        SchemaMapping schema = SchemaMapping.VOTERS;
+        InterleavingPolicy policy = InterleavingPolicy.roundRobin();
+        List<String> specs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--schema")) {
+                schema = SchemaMapping.named(args[++i]);
+            } else if (args[i].equals("--policy")) {
+                policy = args[++i].equals("available") ? InterleavingPolicy.firstAvailable(50) : InterleavingPolicy.roundRobin();
+            } else {
+                specs.add(args[i]);
+            }
+        }
+        if (specs.isEmpty()) {
+            System.err.println("Usage: RecordStream [--schema voters|imdb] [--policy roundrobin|available] source...");
+            System.exit(2);
+        }
+        List<RecordSource> sources = new ArrayList<>();
+        for (int i = 0; i < specs.size(); i++) {
+            SchemaMapping mapping = schema == SchemaMapping.IMDB ? schema.withOrigin(i % 2 == 0 ? "A" : "B") : schema;
+            sources.add(source(specs.get(i), mapping));
+        }
+
+        ExperimentConfig config = new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8);
+        EntityClusters clusters = new EntityClusters(new AsyncMatchSink(new File("results.txt"), AsyncMatchSink.Format.TEXT));
+        ExpBlock e = new ExpBlock(0.1, 2.0 / 3, 1000, config, clusters);
+        RecordStream stream = new RecordStream(policy, sources);
+        // Ctrl+C: encerra o stream e espera o fechamento de results.txt
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stream.stop();
+            try {
+                mainThread.join(10000);
+            } catch (InterruptedException ex) {
+                // Saindo
+            }
+        }));
+        long[] processed = {0};
+        long n = stream.run(rec -> {
+            e.put(rec);
+            if (++processed[0] % 10000 == 0) {
+                EngineMetrics.Snapshot m = e.metricsSnapshot();
+                System.out.println(String.format("%d records, %d matching pairs, %d false positives (%.0f rec/s)",
+                        m.records, e.matchingPairsNo, e.falsePositivesNo, m.recordsPerSecond()));
+            }
+            if (processed[0] % 100000 == 0) {
+                System.out.println(clusters.stats());
+            }
+        });
+        stream.close();
+        e.close();
+        clusters.close();
+        System.out.println(n + " records, " + e.matchingPairsNo + " matching pairs, " + e.falsePositivesNo + " false positives");
+        System.out.println(clusters.stats());
+    }
+}
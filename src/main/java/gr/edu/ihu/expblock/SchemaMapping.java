@@ -0,0 +1,104 @@
+// SchemaMapping.java
+package gr.edu.ihu.expblock;
+
+import java.util.Arrays;
+
+/**
+ * Which column of an input line feeds each field of a Record, and which source (A or B)
+ * the records come from.
+ *
+ * VOTERS is the layout of the test_voters files: id, surname, name, address (unused),
+ * town, poBox, with the source given by the first letter of the id. IMDB is the layout
+ * of database_imdb/filmes_*.txt: id, title, where the title may contain commas and is
+ * used as both name and surname; both files number their ids from "a", so the source
+ * must be set with withOrigin.
+ */
+public class SchemaMapping {
+
+    /** Column index of a field that the input does not have; it is left empty. */
+    public static final int ABSENT = -1;
+
+    public static final SchemaMapping VOTERS = new SchemaMapping(0, 1, 2, 4, 5, false, null);
+    public static final SchemaMapping IMDB = new SchemaMapping(0, 1, 1, ABSENT, ABSENT, true, null);
+
+    final int idColumn;
+    final int surnameColumn;
+    final int nameColumn;
+    final int townColumn;
+    final int poBoxColumn;
+    // The last mapped column takes the rest of the line, commas included
+    final boolean lastColumnTakesRest;
+    // "A" or "B", or null to take it from the first letter of the id
+    final String origin;
+    private final int lastColumn;
+
+    public SchemaMapping(int idColumn, int surnameColumn, int nameColumn, int townColumn, int poBoxColumn,
+            boolean lastColumnTakesRest, String origin) {
+        this.idColumn = idColumn;
+        this.surnameColumn = surnameColumn;
+        this.nameColumn = nameColumn;
+        this.townColumn = townColumn;
+        this.poBoxColumn = poBoxColumn;
+        this.lastColumnTakesRest = lastColumnTakesRest;
+        this.origin = origin;
+        this.lastColumn = Math.max(Math.max(idColumn, Math.max(surnameColumn, nameColumn)), Math.max(townColumn, poBoxColumn));
+    }
+
+    /** The same mapping, with every record assigned to the given source ("A" or "B"). */
+    public SchemaMapping withOrigin(String origin) {
+        return new SchemaMapping(idColumn, surnameColumn, nameColumn, townColumn, poBoxColumn, lastColumnTakesRest, origin);
+    }
+
+    /** The preset with the given name (voters, imdb), for command lines. */
+    public static SchemaMapping named(String name) {
+        switch (name.toLowerCase()) {
+            case "voters":
+                return VOTERS;
+            case "imdb":
+                return IMDB;
+            default:
+                throw new IllegalArgumentException("Unknown schema: " + name);
+        }
+    }
+
+    /** @return the record, with its features computed, or null if the line has too few columns. */
+    public Record map(String[] line) {
+        if (line.length <= lastColumn) return null;
+        String last = line[lastColumn];
+        if (lastColumnTakesRest && line.length > lastColumn + 1) {
+            last = String.join(",", Arrays.copyOfRange(line, lastColumn, line.length));
+        }
+        return build(column(line, idColumn, last), column(line, surnameColumn, last), column(line, nameColumn, last),
+                column(line, townColumn, last), column(line, poBoxColumn, last));
+    }
+
+    private String column(String[] line, int column, String last) {
+        if (column == ABSENT) return "";
+        return column == lastColumn ? last : line[column];
+    }
+
+    /** Maps the current line of a parser; null if it has too few columns. */
+    Record map(LineParser line) {
+        if (line.fieldCount() <= lastColumn) return null;
+        String last = lastColumnTakesRest ? line.rest(lastColumn) : line.field(lastColumn);
+        return build(column(line, idColumn, last), column(line, surnameColumn, last), column(line, nameColumn, last),
+                column(line, townColumn, last), column(line, poBoxColumn, last));
+    }
+
+    private String column(LineParser line, int column, String last) {
+        if (column == ABSENT) return "";
+        return column == lastColumn ? last : line.field(column);
+    }
+
+    private Record build(String id, String surname, String name, String town, String poBox) {
+        Record rec = new Record();
+        rec.id = id;
+        rec.name = name;
+        rec.surname = surname;
+        rec.town = town;
+        rec.poBox = poBox;
+        rec.origin = origin != null ? origin : id.startsWith("a") ? "A" : "B";
+        rec.computeFeatures();
+        return rec;
+    }
+}
@@ -0,0 +1,113 @@
+// SemanticBlocker.java
+package gr.edu.ihu.expblock;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Blocking keys from the meaning of the surname field (the title, in the IMDB layout)
+ * instead of its characters, so that a title and its translation can share a block:
+ * random-hyperplane LSH over the mean word embedding of TextFeatures.
+ *
+ * Each of the tables hashes the embedding to bits signs of its dot products with random
+ * Gaussian hyperplanes, which two vectors at angle theta agree on with probability
+ * 1 - theta / pi; the bits form one key per table. The buckets of this index are the
+ * ExpBlock blocks themselves: a record is compared with the records under its keys, the
+ * blocks are bounded by w and evicted like any other, and candidate generation costs a
+ * few hundred dot products per record rather than a cosine against every stored record.
+ *
+ * By default the character keys of the MinHash are kept alongside, so pairs spelled alike
+ * are still found; records without an embedding (no model loaded, or no known word) only
+ * get those. The hyperplanes come from a fixed seed, so every run and shard computes the
+ * same keys. Checkpoints record the MinHash only: set the blocker again after a restore.
+ */
+public class SemanticBlocker {
+
+    private static final long SEED = 0x5DEECE66DL;
+
+    public final int tables;
+    public final int bits;
+    // Também gera as chaves por caracteres do MinHash
+    public boolean characterKeys = true;
+    // Hiperplanos de todas as tabelas, em sequência; criados com a dimensão do primeiro vetor
+    private volatile float[] planes;
+    private int dimension;
+
+    /**
+     * @param tables the number of keys per record.
+     * @param bits the hyperplanes per key, at most 31; more bits make smaller, purer blocks.
+     */
+    public SemanticBlocker(int tables, int bits) {
+        if (bits < 1 || bits > 31) {
+            throw new IllegalArgumentException("bits must be in [1, 31]: " + bits);
+        }
+        this.tables = tables;
+        this.bits = bits;
+    }
+
+    private float[] planes(int dimension) {
+        float[] p = planes;
+        if (p == null) {
+            synchronized (this) {
+                p = planes;
+                if (p == null) {
+                    Random random = new Random(SEED);
+                    p = new float[tables * bits * dimension];
+                    for (int i = 0; i < p.length; i++) {
+                        p[i] = (float) random.nextGaussian();
+                    }
+                    this.dimension = dimension;
+                    planes = p;
+                }
+            }
+        }
+        if (dimension != this.dimension) {
+            throw new IllegalArgumentException("Embedding of dimension " + dimension + " after " + this.dimension);
+        }
+        return p;
+    }
+
+    /** The semantic keys of an embedding, one per table. */
+    String[] semanticKeys(float[] embedding) {
+        int d = embedding.length;
+        float[] p = planes(d);
+        String[] keys = new String[tables];
+        int plane = 0;
+        for (int t = 0; t < tables; t++) {
+            int signature = 0;
+            for (int j = 0; j < bits; j++, plane += d) {
+                float dot = 0f;
+                for (int i = 0; i < d; i++) {
+                    dot += p[plane + i] * embedding[i];
+                }
+                if (dot >= 0f) {
+                    signature |= 1 << j;
+                }
+            }
+            keys[t] = "s" + t + ":" + Integer.toHexString(signature);
+        }
+        return keys;
+    }
+
+    /**
+     * Computes the blocking keys of a record into rec.bKeys, as Record.getBlockingKeys
+     * does for the MinHash alone.
+     * @return the keys: the character keys, if kept, then the semantic ones.
+     */
+    public String[] keys(Record rec, MinHash minHash) {
+        float[] embedding = rec.getSurnameFeatures().embedding;
+        if (embedding == null) {
+            return rec.getBlockingKeys(minHash);
+        }
+        String[] semantic = semanticKeys(embedding);
+        String[] keys = semantic;
+        if (characterKeys) {
+            String[] character = rec.getBlockingKeys(minHash);
+            keys = Arrays.copyOf(character, character.length + semantic.length);
+            System.arraycopy(semantic, 0, keys, character.length, semantic.length);
+        }
+        rec.bKeys = keys;
+        rec.bKey = keys[0];
+        return keys;
+    }
+}
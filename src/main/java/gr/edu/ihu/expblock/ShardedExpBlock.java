@@ -0,0 +1,233 @@
+// ShardedExpBlock.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/**
+ * Runs ExpBlock on several cores by hash-partitioning the blocking keys across a
+ * number of shards. Each shard is an independent ExpBlock holding its own slice of
+ * the b blocks, with its own eviction rounds and random sequence, and is driven by
+ * its own worker thread. Since all records of a key are routed to the same shard,
+ * they are still compared in arrival order; the shards only share the match sink.
+ *
+ * With an LSH MinHash a record has several keys, which may belong to different shards.
+ * Its bands share one LongSet.Shared of the records already compared with it, so a pair
+ * sharing several keys is compared once, by whichever shard reaches it first, and is
+ * still found when the shards owning the other keys have evicted their blocks.
+ */
+public class ShardedExpBlock implements AutoCloseable {
+
+    /** One band of a record, routed to the shard owning its key. */
+    private static final class Task {
+        final Record rec;
+        final int band;
+        final LongSet compared;
+
+        Task(Record rec, int band, LongSet compared) {
+            this.rec = rec;
+            this.band = band;
+            this.compared = compared;
+        }
+    }
+
+    private static final Task POISON = new Task(null, 0, null);
+    private static final int QUEUE_CAPACITY = 4096;
+
+    public final ExpBlock[] shards;
+    public MinHash minHash = new MinHash();
+    public MatchSink sink;
+    // Shared by the shards; putLatency measures each band a worker processes
+    public final EngineMetrics metrics = new EngineMetrics();
+
+    private final List<ArrayBlockingQueue<Task>> queues;
+    private final Thread[] workers;
+    private final LongAdder matchingPairsNo = new LongAdder();
+    private final LongAdder falsePositivesNo = new LongAdder();
+    // Também Errors (p.ex. OutOfMemoryError): senão offer esperaria para sempre pelo worker
+    private volatile Throwable failure;
+    private boolean closed = false;
+    private final boolean ownsSink;
+    // metricsSnapshot depois do close
+    private volatile EngineMetrics.Snapshot finalSnapshot;
+
+    /**
+     * Writes the matches to results.txt.
+     * @param b the total number of blocks, divided evenly among the shards.
+     * @param shardsNo the number of shards, i.e. worker threads.
+     */
+    public ShardedExpBlock(double epsilon, double q, int b, int shardsNo, ExperimentConfig config) throws IOException {
+        this(epsilon, q, b, shardsNo, config, new AsyncMatchSink(new File("results.txt"), AsyncMatchSink.Format.TEXT), true);
+    }
+
+    /**
+     * @param sink receives the matches of all the shards; it is not closed by close.
+     */
+    public ShardedExpBlock(double epsilon, double q, int b, int shardsNo, ExperimentConfig config, MatchSink sink) {
+        this(epsilon, q, b, shardsNo, config, sink, false);
+    }
+
+    private ShardedExpBlock(double epsilon, double q, int b, int shardsNo, ExperimentConfig config, MatchSink sink, boolean ownsSink) {
+        this.sink = sink;
+        this.ownsSink = ownsSink;
+        this.shards = new ExpBlock[shardsNo];
+        this.queues = new ArrayList<>(shardsNo);
+        this.workers = new Thread[shardsNo];
+        int shardB = (b + shardsNo - 1) / shardsNo;
+        for (int s = 0; s < shardsNo; s++) {
+            shards[s] = new ExpBlock(epsilon, q, shardB, config, sink);
+            shards[s].metrics = metrics;
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+            final int shard = s;
+            workers[s] = new Thread(() -> drain(shard), "expblock-shard-" + s);
+            workers[s].setDaemon(true);
+            workers[s].start();
+        }
+    }
+
+    /**
+     * Computes the blocking keys of the record on the calling thread and hands each of
+     * them to the shard owning it. Blocks when a shard's queue is full.
+     */
+    public void put(Record rec) {
+        rec.getBlockingKeys(minHash);
+        putKeyed(rec);
+    }
+
+    /**
+     * As put, for a record whose blocking keys are already set, e.g. by IngestPipeline
+     * (see ExpBlock.putKeyed).
+     */
+    public void putKeyed(Record rec) {
+        String[] keys = rec.bKeys;
+        // Calculadas aqui, e não por vários workers ao mesmo tempo
+        rec.getNameFeatures();
+        rec.getSurnameFeatures();
+        rec.getIdNumber();
+        metrics.records.increment();
+        // Um só conjunto para todas as bandas, compartilhado pelos workers que as processam
+        LongSet compared = keys.length > 1 ? new LongSet.Shared() : null;
+        for (int band = 0; band < keys.length; band++) {
+            offer(Math.floorMod(keys[band].hashCode(), shards.length), new Task(rec, band, compared));
+        }
+        checkFailure();
+    }
+
+    /** Seeds the eviction sampling of each shard, for reproducible runs. */
+    public void setSeed(long seed) {
+        for (int s = 0; s < shards.length; s++) {
+            shards[s].setSeed(seed + s);
+        }
+    }
+
+    private void offer(int s, Task task) {
+        try {
+            while (!queues.get(s).offer(task, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing record " + task.rec.id, e);
+        }
+    }
+
+    private void drain(int s) {
+        ExpBlock shard = shards[s];
+        ArrayBlockingQueue<Task> queue = queues.get(s);
+        try {
+            while (true) {
+                Task task = queue.take();
+                if (task == POISON) {
+                    return;
+                }
+                long start = System.nanoTime();
+                Block.PutResult result = shard.putBand(task.rec, task.band, task.compared);
+                metrics.putLatency.record(System.nanoTime() - start);
+                if (result.truePositives > 0) matchingPairsNo.add(result.truePositives);
+                if (result.falsePositives > 0) falsePositivesNo.add(result.falsePositives);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IllegalStateException("A shard worker failed", e);
+        }
+    }
+
+    public long getMatchingPairsNo() {
+        return matchingPairsNo.sum();
+    }
+
+    public long getFalsePositivesNo() {
+        return falsePositivesNo.sum();
+    }
+
+    /**
+     * Current values of the metrics of all the shards together; after close, their values
+     * when the workers finished, before the shards were emptied.
+     */
+    public EngineMetrics.Snapshot metricsSnapshot() {
+        if (finalSnapshot != null) {
+            return finalSnapshot;
+        }
+        long occupied = 0;
+        long capacity = 0;
+        for (ExpBlock shard : shards) {
+            occupied += shard.occupied;
+            capacity += shard.b;
+        }
+        return metrics.snapshot(occupied, capacity);
+    }
+
+    public long getGlobalRecNo() {
+        long n = 0;
+        for (ExpBlock shard : shards) n += shard.globalRecNo;
+        return n;
+    }
+
+    /**
+     * Waits for every queued record to be processed, stops the workers, empties the shards
+     * (see ExpBlock.close) and closes the match sink if it was opened by this instance.
+     * The counters are final once this method returns.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                // Um worker que morreu deixa a fila cheia: espera só enquanto ele está vivo
+                while (workers[s].isAlive() && !queues.get(s).offer(POISON, 100, TimeUnit.MILLISECONDS)) {
+                    // Tenta de novo
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            finalSnapshot = metricsSnapshot();
+            for (ExpBlock shard : shards) {
+                shard.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ownsSink) {
+                sink.close();
+            }
+        }
+        checkFailure();
+    }
+}
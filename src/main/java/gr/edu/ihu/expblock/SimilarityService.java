@@ -6,25 +6,20 @@ import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 
 import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
 
-import org.apache.commons.text.similarity.LevenshteinDistance;
-
 import java.io.File;
+import java.io.IOException;
 import java.text.Normalizer;
 import java.util.*;
 
 public class SimilarityService {
 
     private static WordVectors vec;
+    private static EmbeddingStore store;
     private static boolean isInitialized = false;
 
-    // Cache LRU de embeddings para acelerar comparações e limitar memória
-    private static final int CACHE_MAX = 100_000;
-    private static final Map<String, double[]> embeddingCache = new LinkedHashMap<String, double[]>(CACHE_MAX, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
-            return size() > CACHE_MAX;
-        }
-    };
+    // Cache concorrente de embeddings (CLOCK + admissão TinyLFU), limitado em bytes
+    private static final long CACHE_MAX_BYTES = 128L << 20;
+    private static final EmbeddingCache embeddingCache = new EmbeddingCache(CACHE_MAX_BYTES);
 
     // Classe de retorno para agrupar os resultados
     public static class SimilarityScores {
@@ -36,6 +31,18 @@ public class SimilarityService {
     public static void initialize(String modelPath) {
         if (isInitialized) return;
         File modelo = new File(modelPath);
+        if (EmbeddingStore.isStoreFile(modelo)) {
+            // Store convertido com EmbeddingStore: apenas mapeia o arquivo, sem carregar no heap
+            try {
+                store = EmbeddingStore.open(modelo);
+                isInitialized = true;
+                System.out.println("Modelo mapeado: " + store);
+            } catch (IOException e) {
+                System.err.println("Falha ao mapear o EmbeddingStore: " + e.getMessage());
+                store = null;
+            }
+            return;
+        }
         try {
             System.out.println("Carregando modelo (.vec/.bin/.zip) com loadStaticModel...");
             // Carrega como modelo estático (mais leve p/ lookup). Aceita .vec também.
@@ -59,64 +66,102 @@ public class SimilarityService {
 
     /** Calcula os scores de similaridade entre duas strings */
     public static SimilarityScores getScores(String str1, String str2, ExperimentConfig config) {
+        return getScores(extractFeatures(str1), extractFeatures(str2), config);
+    }
+
+    /** Calcula os scores de similaridade a partir das features pré-computadas */
+    public static SimilarityScores getScores(TextFeatures f1, TextFeatures f2, ExperimentConfig config) {
         SimilarityScores scores = new SimilarityScores();
 
         // --- Similaridade Semântica ---
-        if (config.semanticSimilarityWeight > 0.0 && isInitialized && vec != null) {
-            double[] vec1 = sentenceVector(str1);
-            double[] vec2 = sentenceVector(str2);
-            scores.semanticScore = (vec1 != null && vec2 != null) ? cosineSimilarity(vec1, vec2) : 0.0;
+        if (config.semanticSimilarityWeight > 0.0 && hasModel()) {
+            scores.semanticScore = (f1.embedding != null && f2.embedding != null) ? dot(f1.embedding, f2.embedding) : 0.0;
         } else {
             scores.semanticScore = 0.0;
         }
 
         // --- Similaridades Sintáticas ---
-        scores.levenshteinScore = calcularLevenshteinComposto(str1, str2);
-        scores.charEmbeddingScore = calcularCharEmbeddingSimilarity(str1, str2);
+        scores.levenshteinScore = calcularLevenshteinComposto(f1, f2);
+        scores.charEmbeddingScore = calcularCharEmbeddingSimilarity(f1, f2);
 
         return scores;
     }
 
+    /**
+     * Builds the features of a string that the similarity functions work on: the
+     * normalized text, its parts, its character-presence mask and, when the model is
+     * loaded, its L2-normalized mean embedding.
+     */
+    public static TextFeatures extractFeatures(String text) {
+        String normalizado = limparTexto(text);
+        String[] partes = normalizado.split("\\s+");
+        float[] embedding = hasModel() ? sentenceVector(partes) : null;
+        return new TextFeatures(text, normalizado, partes, charMask(normalizado), embedding);
+    }
+
     // ---------- SEMÂNTICA COM EMBEDDINGS ----------
 
-    private static double[] getVectorCached(String token) {
-        double[] cached = embeddingCache.get(token);
-        if (cached != null) return cached;
+    private static boolean hasModel() {
+        return isInitialized && (vec != null || store != null);
+    }
+
+    /** Contadores do cache de embeddings (acertos, faltas, remoções) */
+    public static EmbeddingCache.Stats cacheStats() {
+        return embeddingCache.stats();
+    }
+
+    private static float[] getVectorCached(String token) {
+        return embeddingCache.get(token, SimilarityService::loadVector);
+    }
+
+    private static float[] loadVector(String token) {
+        if (store != null) {
+            return store.vector(token);
+        }
         if (vec != null && vec.hasWord(token)) {
-            double[] v = vec.getWordVector(token);
-            if (v != null) embeddingCache.put(token, v);
-            return v;
+            double[] d = vec.getWordVector(token);
+            if (d != null) {
+                float[] v = new float[d.length];
+                for (int i = 0; i < d.length; i++) v[i] = (float) d[i];
+                return v;
+            }
         }
         return null;
     }
 
-    private static double[] sentenceVector(String frase) {
-        String[] tokens = limparTexto(frase).split(" ");
-        List<double[]> vectors = new ArrayList<>();
+    /** Média dos vetores dos tokens, normalizada (L2); null se nenhum token tiver vetor */
+    private static float[] sentenceVector(String[] tokens) {
+        double[] mean = null;
+        int count = 0;
         for (String t : tokens) {
             if (t.isEmpty()) continue;
-            double[] v = getVectorCached(t);
-            if (v != null) vectors.add(v);
+            float[] v = getVectorCached(t);
+            if (v == null) continue;
+            if (mean == null) mean = new double[v.length];
+            for (int i = 0; i < mean.length; i++) mean[i] += v[i];
+            count++;
         }
-        if (vectors.isEmpty()) return null;
+        if (count == 0) return null;
 
-        int dim = vectors.get(0).length;
-        double[] mean = new double[dim];
-        for (double[] v : vectors) {
-            for (int i = 0; i < dim; i++) mean[i] += v[i];
+        double norm = 0.0;
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] /= count;
+            norm += mean[i] * mean[i];
         }
-        for (int i = 0; i < dim; i++) mean[i] /= vectors.size();
-        return mean;
+        if (norm == 0) return null;
+        norm = Math.sqrt(norm);
+        float[] unit = new float[mean.length];
+        for (int i = 0; i < mean.length; i++) unit[i] = (float) (mean[i] / norm);
+        return unit;
     }
 
-    private static double cosineSimilarity(double[] v1, double[] v2) {
-        double dot = 0.0, n1 = 0.0, n2 = 0.0;
+    /** Similaridade do cosseno entre vetores já normalizados */
+    private static double dot(float[] v1, float[] v2) {
+        double dot = 0.0;
         for (int i = 0; i < v1.length; i++) {
             dot += v1[i] * v2[i];
-            n1 += v1[i] * v1[i];
-            n2 += v2[i] * v2[i];
         }
-        return (n1 == 0 || n2 == 0) ? 0.0 : dot / (Math.sqrt(n1) * Math.sqrt(n2));
+        return dot;
     }
 
     // ---------- SINTÁTICA ----------
@@ -130,12 +175,33 @@ public class SimilarityService {
         return normalizado.trim();
     }
 
-    private static double calcularLevenshteinComposto(String nome1, String nome2) {
-        String[] partes1 = limparTexto(nome1).split("\\s+");
-        String[] partes2 = limparTexto(nome2).split("\\s+");
+    /**
+     * Builds the character-presence mask of a normalized string: bit c - 'a' for the
+     * letters a-z and bit 26 for the space, the only characters limparTexto keeps.
+     */
+    public static int charMask(String normalizado) {
+        int mask = 0;
+        for (int i = 0; i < normalizado.length(); i++) {
+            char c = normalizado.charAt(i);
+            mask |= c == ' ' ? 1 << 26 : 1 << (c - 'a');
+        }
+        return mask;
+    }
+
+    /**
+     * Jaccard similarity of the character sets given by two masks of charMask.
+     */
+    public static double charJaccard(int mask1, int mask2) {
+        int uniao = Integer.bitCount(mask1 | mask2);
+        return uniao == 0 ? 1.0 : (double) Integer.bitCount(mask1 & mask2) / uniao;
+    }
+
+    private static double calcularLevenshteinComposto(TextFeatures f1, TextFeatures f2) {
+        String[] partes1 = f1.parts;
+        String[] partes2 = f2.parts;
 
-        LevenshteinDistance levenshtein = new LevenshteinDistance();
-        List<Double> sims = new ArrayList<>();
+        double soma = 0.0;
+        int n = 0;
         int maxPartes = Math.max(partes1.length, partes2.length);
 
         for (int i = 0; i < maxPartes; i++) {
@@ -143,25 +209,16 @@ public class SimilarityService {
             String p2 = i < partes2.length ? partes2[i] : "";
             if (p1.isEmpty() && p2.isEmpty()) continue;
 
-            int dist = levenshtein.apply(p1, p2);
+            int dist = Levenshtein.distance(p1, p2);
             int maxLen = Math.max(p1.length(), p2.length());
             double sim = maxLen == 0 ? 1.0 : 1.0 - ((double) dist / maxLen);
-            sims.add(sim);
+            soma += sim;
+            n++;
         }
-        return sims.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+        return n == 0 ? 0.0 : soma / n;
     }
 
-    private static double calcularCharEmbeddingSimilarity(String nome1, String nome2) {
-        Set<Character> chars1 = new HashSet<>();
-        Set<Character> chars2 = new HashSet<>();
-        for (char c : limparTexto(nome1).toCharArray()) chars1.add(c);
-        for (char c : limparTexto(nome2).toCharArray()) chars2.add(c);
-
-        Set<Character> inter = new HashSet<>(chars1);
-        inter.retainAll(chars2);
-        Set<Character> uniao = new HashSet<>(chars1);
-        uniao.addAll(chars2);
-
-        return uniao.isEmpty() ? 1.0 : (double) inter.size() / uniao.size();
+    private static double calcularCharEmbeddingSimilarity(TextFeatures f1, TextFeatures f2) {
+        return charJaccard(f1.charMask, f2.charMask);
     }
 }
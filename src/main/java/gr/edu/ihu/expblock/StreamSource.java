@@ -0,0 +1,93 @@
+// StreamSource.java
+package gr.edu.ihu.expblock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records read from an InputStream, typically standard input. A blocking read cannot be
+ * given a timeout, so a daemon thread reads and parses the stream into a bounded queue,
+ * which holds the reader back when the engine falls behind.
+ */
+public class StreamSource implements RecordSource {
+
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final ReadableByteChannel in;
+    private final SchemaMapping mapping;
+    private final ArrayBlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread reader;
+    private volatile boolean ended = false;
+    private volatile IOException failure;
+
+    public StreamSource(InputStream in, SchemaMapping mapping) {
+        this.in = Channels.newChannel(in);
+        this.mapping = mapping;
+        this.reader = new Thread(this::read, "expblock-stream-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public static StreamSource stdin(SchemaMapping mapping) {
+        return new StreamSource(System.in, mapping);
+    }
+
+    private void read() {
+        LineParser parser = new LineParser();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        try {
+            boolean eof = false;
+            while (!eof) {
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                eof = in.read(buffer) < 0;
+                buffer.flip();
+                while (parser.next(buffer, eof)) {
+                    Record rec = mapping.map(parser);
+                    if (rec != null) queue.put(rec);
+                }
+                buffer.compact();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Fechado
+        } finally {
+            ended = true;
+        }
+    }
+
+    @Override
+    public Record poll(long timeoutMillis) throws IOException, InterruptedException {
+        Record rec = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (rec == null && failure != null) {
+            throw new IOException("Failed reading the input stream", failure);
+        }
+        return rec;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return ended && queue.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        in.close();
+    }
+
+    @Override
+    public String toString() {
+        return "stream";
+    }
+}
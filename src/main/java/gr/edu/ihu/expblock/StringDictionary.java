@@ -0,0 +1,135 @@
+// StringDictionary.java
+package gr.edu.ihu.expblock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dictionary encoding of the names and surnames held in blocks: every distinct string
+ * gets a dense int id, stored with its TextFeatures. A stored record then costs two ints
+ * instead of two Strings and two feature objects, and all records sharing a name share
+ * its features.
+ *
+ * Entries are reference counted: every stored copy of a record holds one reference to
+ * its name and one to its surname (see RecordStore), and an entry is dropped, with its
+ * features, when the last copy is evicted. The dictionary thus holds the distinct strings
+ * of the records in memory, not of every record ever seen. Freed ids are never handed out
+ * again, so that a cached score of a pair of ids (PairScoreCache) cannot be read for
+ * another pair of strings; a chunk of ids is released once all of its entries are freed.
+ *
+ * Acquiring a live entry is a ConcurrentHashMap read and a CAS on its count; new ids are
+ * assigned, and entries freed, under a lock.
+ */
+final class StringDictionary {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Shared by all engines, like the embedding cache of SimilarityService. */
+    static final StringDictionary SHARED = new StringDictionary();
+
+    private static final class Chunk {
+        final TextFeatures[] features = new TextFeatures[CHUNK_SIZE];
+        // Chave de cada id em ids
+        final String[] texts = new String[CHUNK_SIZE];
+        // Referências de cada id; -1 depois de liberado
+        final AtomicIntegerArray references = new AtomicIntegerArray(CHUNK_SIZE);
+        // Ids liberados do chunk (sob o lock)
+        int freed = 0;
+    }
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Published through ids: an id is only handed out after its entry is stored
+    private volatile Chunk[] chunks = new Chunk[16];
+    private int next = 0;
+    private int live = 0;
+
+    /**
+     * Takes a reference to the entry of text, creating it if text is new; the reference
+     * must be given back with release.
+     * @param features the features of text, kept if text is new.
+     * @return the id of text.
+     */
+    int acquire(String text, TextFeatures features) {
+        Integer id = ids.get(text);
+        if (id != null) {
+            Chunk chunk = chunks[id >>> CHUNK_BITS];
+            if (chunk != null) {
+                AtomicIntegerArray references = chunk.references;
+                int slot = id & CHUNK_MASK;
+                for (int n = references.get(slot); n > 0; n = references.get(slot)) {
+                    if (references.compareAndSet(slot, n, n + 1)) {
+                        return id;
+                    }
+                }
+            }
+            // Sendo liberado: resolve sob o lock
+        }
+        synchronized (this) {
+            id = ids.get(text);
+            if (id != null) {
+                chunks[id >>> CHUNK_BITS].references.incrementAndGet(id & CHUNK_MASK);
+                return id;
+            }
+            if (next < 0) {
+                throw new IllegalStateException("StringDictionary: ids exhausted");
+            }
+            int assigned = next;
+            Chunk[] table = chunks;
+            int c = assigned >>> CHUNK_BITS;
+            if (c == table.length) {
+                Chunk[] larger = new Chunk[table.length * 2];
+                System.arraycopy(table, 0, larger, 0, table.length);
+                table = larger;
+            }
+            if (table[c] == null) {
+                table[c] = new Chunk();
+            }
+            table[c].features[assigned & CHUNK_MASK] = features;
+            table[c].texts[assigned & CHUNK_MASK] = text;
+            table[c].references.set(assigned & CHUNK_MASK, 1);
+            chunks = table;
+            next++;
+            live++;
+            ids.put(text, assigned);
+            return assigned;
+        }
+    }
+
+    /** Gives back a reference taken by acquire, dropping the entry if it was the last one. */
+    void release(int id) {
+        Chunk chunk = chunks[id >>> CHUNK_BITS];
+        int slot = id & CHUNK_MASK;
+        if (chunk.references.decrementAndGet(slot) > 0) {
+            return;
+        }
+        synchronized (this) {
+            // Um acquire pode ter voltado a referenciar o id antes do lock
+            if (!chunk.references.compareAndSet(slot, 0, -1)) {
+                return;
+            }
+            ids.remove(chunk.texts[slot], id);
+            chunk.features[slot] = null;
+            chunk.texts[slot] = null;
+            live--;
+            if (++chunk.freed == CHUNK_SIZE) {
+                chunks[id >>> CHUNK_BITS] = null;
+            }
+        }
+    }
+
+    /** The features of a live id, i.e. one referenced by the caller. */
+    TextFeatures features(int id) {
+        return chunks[id >>> CHUNK_BITS].features[id & CHUNK_MASK];
+    }
+
+    String text(int id) {
+        return chunks[id >>> CHUNK_BITS].texts[id & CHUNK_MASK];
+    }
+
+    /** Number of live entries. */
+    synchronized int size() {
+        return live;
+    }
+}
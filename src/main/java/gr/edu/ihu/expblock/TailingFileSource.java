@@ -0,0 +1,128 @@
+// TailingFileSource.java
+package gr.edu.ihu.expblock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a file that is still being written, like tail -f: lines are returned as they
+ * are completed by a newline, and the source never finishes until it is closed. If the
+ * path is replaced by another file (log rotation), the rest of the old file is read and
+ * then the new one from the start; files are told apart by their fileKey, and on file
+ * systems without one only by a new file being shorter than the bytes read. If the file
+ * is truncated, it is read again from the start.
+ *
+ * Bytes are read into one reused buffer and split in place by a LineParser; the buffer
+ * only grows to hold the longest line.
+ */
+public class TailingFileSource implements RecordSource {
+
+    private final File file;
+    private final SchemaMapping mapping;
+    private final long pollIntervalMillis;
+    private final LineParser parser = new LineParser();
+    private FileChannel channel;
+    // Identidade do arquivo aberto (inode), ou null se o sistema de arquivos não a fornece
+    private Object fileKey;
+    // File offset of the first byte after those read into buffer
+    private long offset;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private volatile boolean closed = false;
+
+    /**
+     * @param fromStart whether to read the lines already in the file, or only new ones.
+     * @param pollIntervalMillis how often to look for new bytes while waiting.
+     */
+    public TailingFileSource(File file, SchemaMapping mapping, boolean fromStart, long pollIntervalMillis) throws IOException {
+        this.file = file;
+        this.mapping = mapping;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        this.offset = fromStart ? 0 : channel.size();
+        buffer.flip();
+    }
+
+    @Override
+    public Record poll(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (!closed) {
+            while (parser.next(buffer, false)) {
+                Record rec = mapping.map(parser);
+                if (rec != null) return rec;
+            }
+            if (read() > 0) continue;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return null;
+            Thread.sleep(Math.min(pollIntervalMillis, Math.max(1, remaining / 1000000L)));
+        }
+        return null;
+    }
+
+    /** Appends the new bytes of the file to the buffer; returns how many were read. */
+    private int read() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // No meio de uma rotação: continua no arquivo antigo
+            attributes = null;
+        }
+        if (attributes != null) {
+            boolean replaced = fileKey != null && !fileKey.equals(attributes.fileKey());
+            // Substituído por rotação (depois de ler o resto do antigo), ou menor que o já
+            // lido: truncado, ou substituído num sistema de arquivos sem fileKey
+            if (replaced ? channel.size() <= offset : attributes.size() < offset) {
+                try {
+                    reopen();
+                } catch (NoSuchFileException e) {
+                    return 0;
+                }
+            }
+        }
+        if (channel.size() <= offset) return 0;
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            // Linha maior que o buffer: dobra a capacidade
+            ByteBuffer larger = ByteBuffer.allocateDirect(2 * buffer.capacity());
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int n = channel.read(buffer, offset);
+        buffer.flip();
+        if (n > 0) offset += n;
+        return Math.max(n, 0);
+    }
+
+    private void reopen() throws IOException {
+        channel.close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        offset = 0;
+        buffer.clear();
+        buffer.flip();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "tail:" + file.getPath();
+    }
+}
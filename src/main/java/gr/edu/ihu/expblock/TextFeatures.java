@@ -0,0 +1,29 @@
+// TextFeatures.java
+package gr.edu.ihu.expblock;
+
+/**
+ * Immutable features of one text field (name or surname) of a record, computed once
+ * when the record is ingested so that the similarity functions do not normalize and
+ * tokenize the same strings again for every pair they score.
+ */
+public final class TextFeatures {
+
+    /** The original text. */
+    public final String text;
+    /** The text after lower-casing, accent stripping and whitespace collapsing. */
+    public final String normalized;
+    /** The whitespace-separated parts of the normalized text. */
+    public final String[] parts;
+    /** The characters present in the normalized text, as a SimilarityService.charMask. */
+    public final int charMask;
+    /** The L2-normalized mean word embedding, or null if no part has a vector. */
+    public final float[] embedding;
+
+    TextFeatures(String text, String normalized, String[] parts, int charMask, float[] embedding) {
+        this.text = text;
+        this.normalized = normalized;
+        this.parts = parts;
+        this.charMask = charMask;
+        this.embedding = embedding;
+    }
+}
@@ -0,0 +1,94 @@
+// TopMatches.java
+package gr.edu.ihu.expblock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The k best matches of one incoming record, collected across all the blocks it is put
+ * into (see ExpBlock.topK). A min-heap on the score: floor() is the score a candidate has
+ * to beat to enter, which Block uses to discard candidates from upper bounds of their
+ * score before computing it.
+ */
+public class TopMatches {
+
+    /** A stored record that matches the incoming one. */
+    public static class Match {
+        public final Record record;
+        public final double score;
+        // Same ground-truth id as the incoming record
+        public final boolean truePositive;
+
+        Match(Record record, double score, boolean truePositive) {
+            this.record = record;
+            this.score = score;
+            this.truePositive = truePositive;
+        }
+    }
+
+    private final int k;
+    // Grows up to k, so a large k costs nothing for records with few matches
+    private Match[] heap;
+    private int size = 0;
+
+    public TopMatches(int k) {
+        this.k = k;
+        this.heap = new Match[Math.min(k, 8)];
+    }
+
+    /** The score to beat to enter; negative infinity while fewer than k matches are held. */
+    double floor() {
+        return size < k ? Double.NEGATIVE_INFINITY : heap[0].score;
+    }
+
+    boolean accepts(double score) {
+        return score > floor();
+    }
+
+    void offer(Record record, double score, boolean truePositive) {
+        Match match = new Match(record, score, truePositive);
+        if (size < k) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, (int) Math.min(k, 2L * heap.length));
+            }
+            int i = size++;
+            heap[i] = match;
+            while (i > 0 && heap[(i - 1) / 2].score > heap[i].score) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        } else if (score > heap[0].score) {
+            heap[0] = match;
+            int i = 0;
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heap[left].score < heap[smallest].score) smallest = left;
+                if (right < size && heap[right].score < heap[smallest].score) smallest = right;
+                if (smallest == i) break;
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        Match t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The matches held, best first. */
+    public List<Match> ranked() {
+        List<Match> list = new ArrayList<>(Arrays.asList(heap).subList(0, size));
+        list.sort(Collections.reverseOrder((a, b) -> Double.compare(a.score, b.score)));
+        return list;
+    }
+}
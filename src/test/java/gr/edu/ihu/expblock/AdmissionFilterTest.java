@@ -0,0 +1,104 @@
+// AdmissionFilterTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.blockHolding;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AdmissionFilterTest {
+
+    private static ExpBlock engine(TestRecords.CollectingSink sink, int minFrequency) {
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 4, CONFIG, sink);
+        engine.admission = new AdmissionFilter(64, 16);
+        engine.admission.minFrequency = minFrequency;
+        engine.setSeed(1);
+        return engine;
+    }
+
+    /** Puts n records under one key, which then has a block that new keys must outweigh. */
+    private static void fill(ExpBlock engine, int n) {
+        for (int i = 0; i < n; i++) {
+            engine.put(record("a" + (900 + i) + "_0", "FILLER", "FILL", "1"));
+        }
+    }
+
+    @Test
+    public void recordsInProbationAreComparedWhenTheirKeyIsAdmitted() {
+        TestRecords.CollectingSink sink = new TestRecords.CollectingSink();
+        ExpBlock engine = engine(sink, 3);
+        fill(engine, 2);
+        // Chave nova menos frequente que a do bloco existente: os dois vão para a probação
+        engine.put(record("a1_0", "CARMICHAEL", "BRENDA", "27001"));
+        engine.put(record("b1", "CARMICHAEL", "BRENDA", "27001"));
+        assertEquals(2, engine.admission.rejected);
+        assertEquals(0, engine.matchingPairsNo);
+
+        // O terceiro atinge minFrequency: o bloco é criado e a probação entra nele pelo put
+        engine.put(record("a2_0", "CARMICHAEL", "BRENDA", "27001"));
+        assertEquals(2, engine.admission.probationHits);
+        assertTrue(sink.pairs.toString(), sink.pairs.contains("a1_0-b1"));
+        assertEquals(1, engine.matchingPairsNo);
+        // a2_0 é outra entidade: comparado com b1, é um falso positivo
+        assertEquals(1, engine.falsePositivesNo);
+    }
+
+    @Test
+    public void releasedBlockStaysWithinW() {
+        ExpBlock engine = engine(new TestRecords.CollectingSink(), 8);
+        engine.w = 3;
+        fill(engine, 10);
+        for (int i = 0; i < 8; i++) {
+            engine.put(record("a" + i + "_0", "GRANT", "HAROLD", "27005"));
+        }
+        assertEquals(7, engine.admission.probationHits);
+        Block block = blockHolding(engine, "A", "a7_0");
+        assertNotNull(block);
+        assertEquals(3, block.recordsA.size + block.recordsB.size);
+        engine.put(record("a8_0", "GRANT", "HAROLD", "27005"));
+        assertEquals(3, block.recordsA.size + block.recordsB.size);
+    }
+
+    @Test
+    public void checkpointKeepsTheFilter() throws Exception {
+        List<Record> first = TestRecords.voters(3000, 7);
+        List<Record> second = TestRecords.voters(3000, 7);
+        File file = Files.createTempFile("admission", ".ck").toFile();
+        try {
+            ExpBlock original = new ExpBlock(0.1, 2.0 / 3, 200, CONFIG, new TestRecords.CollectingSink());
+            original.admission = new AdmissionFilter(800, 256);
+            original.setSeed(3);
+            int half = first.size() / 2;
+            for (int i = 0; i < half; i++) {
+                original.put(first.get(i));
+            }
+            try (Checkpointer checkpointer = new Checkpointer(file)) {
+                checkpointer.checkpoint(original, half).get();
+            }
+            ExpBlock restored = Checkpointer.restore(file, new TestRecords.CollectingSink()).engine;
+            assertNotNull(restored.admission);
+            assertEquals(original.admission.toString(), restored.admission.toString());
+
+            // Mesma semente de eviction e mesmo filtro: os dois continuam iguais
+            for (int i = half; i < first.size(); i++) {
+                original.put(first.get(i));
+                restored.put(second.get(i));
+            }
+            assertEquals(original.matchingPairsNo, restored.matchingPairsNo);
+            assertEquals(original.falsePositivesNo, restored.falsePositivesNo);
+            assertEquals(original.currentRound, restored.currentRound);
+            assertEquals(original.admission.toString(), restored.admission.toString());
+            assertTrue(original.admission.rejected > 0);
+        } finally {
+            file.delete();
+        }
+    }
+}
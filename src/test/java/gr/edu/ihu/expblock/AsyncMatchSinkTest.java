@@ -0,0 +1,64 @@
+// AsyncMatchSinkTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncMatchSinkTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("matches", ".txt").toFile();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void textLinesCarryTheIdsAndNamesOfThePair() throws IOException {
+        try (AsyncMatchSink sink = new AsyncMatchSink(file, AsyncMatchSink.Format.TEXT, 4)) {
+            for (int i = 0; i < 10; i++) {
+                sink.accept(record("a" + i + "_0", "GRANT", "HAROLD", "1"), record("b" + i, "GRANT", "HARALD", "1"), 0.9);
+            }
+        }
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(10, lines.size());
+        assertEquals("MATCH (Score: " + String.format("%.2f", 0.9) + "): a9_0 (GRANT, HAROLD) <-> b9 (GRANT, HARALD)",
+                lines.get(9));
+    }
+
+    @Test
+    public void binaryMatchesReadBack() throws IOException {
+        try (AsyncMatchSink sink = new AsyncMatchSink(file, AsyncMatchSink.Format.BINARY, 4)) {
+            sink.accept(record("a1_0", "GRANT", "HAROLD", "1"), record("b1", "GRANT", "HARALD", "1"), 0.5);
+            sink.accept(record("a2_0", "SMITH", "JOHN", "1"), record("b2", "SMITH", "JON", "1"), 0.75);
+        }
+        List<String> read = new ArrayList<>();
+        assertEquals(2, AsyncMatchSink.read(file, (existing, incoming, score) -> read.add(existing + "-" + incoming + "-" + score)));
+        assertEquals(Arrays.asList("a1_0-b1-0.5", "a2_0-b2-0.75"), read);
+    }
+
+    @Test
+    public void acceptAfterCloseThrows() throws IOException {
+        AsyncMatchSink sink = new AsyncMatchSink(file, AsyncMatchSink.Format.TEXT);
+        sink.close();
+        assertThrows(IllegalStateException.class,
+                () -> sink.accept(record("a1_0", "GRANT", "HAROLD", "1"), record("b1", "GRANT", "HAROLD", "1"), 1.0));
+    }
+}
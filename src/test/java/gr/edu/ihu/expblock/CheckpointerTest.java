@@ -0,0 +1,153 @@
+// CheckpointerTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.blockHolding;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointerTest {
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpoint").toFile();
+        file = new File(directory, "engine.ck");
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void sameIdOnBothSidesIsRestoredOnEachSide() throws Exception {
+        // Como no IMDB: o mesmo id nas duas fontes
+        Record a = record("a0_0", "CASABLANCA", "", "0");
+        Record b = record("a0_0", "CASABLANCA", "", "0");
+        b.origin = "B";
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 10, CONFIG, new TestRecords.CollectingSink());
+        engine.put(a);
+        engine.put(b);
+        try (Checkpointer checkpointer = new Checkpointer(file)) {
+            checkpointer.checkpoint(engine, 2).get();
+        }
+
+        ExpBlock restored = Checkpointer.restore(file, new TestRecords.CollectingSink()).engine;
+        Block block = blockHolding(restored, "A", "a0_0");
+        assertNotNull(block);
+        assertSame(block, blockHolding(restored, "B", "a0_0"));
+        assertEquals(1, block.recordsA.size);
+        assertEquals(1, block.recordsB.size);
+        assertEquals("A", block.recordsA.record(0).origin);
+        assertEquals("B", block.recordsB.record(0).origin);
+    }
+
+    @Test
+    public void failedEncodeIsRetriedByTheNextCheckpoint() throws Exception {
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 10, CONFIG, new TestRecords.CollectingSink());
+        engine.w = 2;
+        engine.put(record("a1_0", "WILLIAMS", "HAROLD", "27002"));
+        // Um nome que writeUTF não aceita: a codificação do bloco falha
+        char[] longName = new char[70000];
+        Arrays.fill(longName, 'X');
+        Record unencodable = record("a2_0", "SMITH", new String(longName), "27003");
+        engine.put(unencodable);
+
+        Checkpointer checkpointer = new Checkpointer(file);
+        Future<File> failed = checkpointer.checkpoint(engine, 1);
+        assertThrows(ExecutionException.class, failed::get);
+        // O bloco de a1_0 não mudou desde a captura que falhou
+        for (int n = 3; blockHolding(engine, "A", "a2_0") != null; n++) {
+            engine.put(record("a" + n + "_0", "SMITH", "JOHN", "27003"));
+        }
+        // A falha é lançada uma vez; o checkpoint seguinte codifica de novo os blocos
+        assertThrows(IOException.class, () -> checkpointer.checkpoint(engine, 2));
+        checkpointer.checkpoint(engine, 3).get();
+        checkpointer.close();
+
+        Checkpointer.Restored restored = Checkpointer.restore(file, new TestRecords.CollectingSink());
+        assertEquals(3, restored.streamOffset);
+        assertNotNull(blockHolding(restored.engine, "A", "a1_0"));
+        assertNull(blockHolding(restored.engine, "A", "a2_0"));
+    }
+
+    @Test
+    public void restoredEngineFindsTheSameMatchesAsTheOriginal() throws Exception {
+        List<Record> records = TestRecords.voters(1500, 9);
+        int half = records.size() / 2;
+        TestRecords.CollectingSink originalSink = new TestRecords.CollectingSink();
+        ExpBlock original = new ExpBlock(0.1, 2.0 / 3, 200, CONFIG, originalSink);
+        original.setSeed(5);
+        for (Record rec : records.subList(0, half)) {
+            original.put(rec);
+        }
+        try (Checkpointer checkpointer = new Checkpointer(file)) {
+            checkpointer.checkpoint(original, half).get();
+        }
+        int before = originalSink.pairs.size();
+
+        TestRecords.CollectingSink restoredSink = new TestRecords.CollectingSink();
+        Checkpointer.Restored restored = Checkpointer.restore(file, restoredSink);
+        ExpBlock copy = restored.engine;
+        assertEquals(half, restored.streamOffset);
+        assertEquals(original.occupied, copy.occupied);
+        assertEquals(original.currentRound, copy.currentRound);
+        assertEquals(original.globalRecNo, copy.globalRecNo);
+        assertEquals(original.matchingPairsNo, copy.matchingPairsNo);
+
+        for (Record rec : records.subList(half, records.size())) {
+            original.put(rec);
+            copy.put(rec);
+        }
+        assertEquals(original.matchingPairsNo, copy.matchingPairsNo);
+        assertEquals(original.falsePositivesNo, copy.falsePositivesNo);
+        assertEquals(original.currentRound, copy.currentRound);
+        List<String> after = new ArrayList<>(originalSink.pairs.subList(before, originalSink.pairs.size()));
+        assertEquals(after, restoredSink.pairs);
+    }
+
+    @Test
+    public void restoreWithoutSinkAppendsToTheMatchesOfTheRun() throws Exception {
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 10, CONFIG, new TestRecords.CollectingSink());
+        engine.put(record("a1_0", "GRANT", "HAROLD", "27001"));
+        try (Checkpointer checkpointer = new Checkpointer(file)) {
+            checkpointer.checkpoint(engine, 1).get();
+        }
+        File matches = new File(directory, "results.txt");
+        Files.write(matches.toPath(), Arrays.asList("MATCH of the run before the restore"));
+
+        ExpBlock restored = Checkpointer.restore(file, null, matches).engine;
+        restored.put(record("b1", "GRANT", "HAROLD", "27001"));
+        // O engine abriu o sink: close o fecha
+        restored.close();
+
+        List<String> lines = Files.readAllLines(matches.toPath());
+        assertEquals(2, lines.size());
+        assertEquals("MATCH of the run before the restore", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).contains("a1_0 (GRANT, HAROLD) <-> b1 (GRANT, HAROLD)"));
+    }
+}
@@ -0,0 +1,108 @@
+// ColdTierTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColdTierTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("cold").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File f : directory.listFiles()) {
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    private static Record keyed(Record rec) {
+        rec.getBlockingKeys(new MinHash());
+        return rec;
+    }
+
+    private static Block block(String key, int records) {
+        Block block = new Block(key, 2.0 / 3, CONFIG);
+        for (int i = 0; i < records; i++) {
+            block.put(keyed(record("a" + i + "_0", "GRANT", "HAROLD", "27001")), 1000, 1, new TestRecords.CollectingSink());
+        }
+        block.put(keyed(record("b0", "GRANT", "HARALD", "27001")), 1000, 1, new TestRecords.CollectingSink());
+        return block;
+    }
+
+    @Test
+    public void spilledBlockIsPromotedWithItsRecords() throws IOException {
+        try (ColdTier tier = new ColdTier(directory, 1 << 20, 1 << 16)) {
+            Block spilled = block("GRANT_27001", 3);
+            spilled.recNo = 7;
+            tier.put(spilled);
+            assertEquals(1, tier.size());
+
+            Block promoted = tier.take("GRANT_27001", 2.0 / 3, CONFIG);
+            assertEquals(0, tier.size());
+            assertEquals(7, promoted.recNo);
+            assertEquals(3, promoted.recordsA.size);
+            assertEquals(1, promoted.recordsB.size);
+            assertEquals("HARALD", promoted.recordsB.record(0).name);
+            assertEquals(spilled.recordsA.seqs[2], promoted.recordsA.seqs[2]);
+            assertNull(tier.take("GRANT_27001", 2.0 / 3, CONFIG));
+            promoted.release();
+        }
+    }
+
+    @Test
+    public void evictedKeyIsMatchedAgainstItsRecordsWhenItReturns() throws IOException {
+        TestRecords.CollectingSink sink = new TestRecords.CollectingSink();
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 4, CONFIG, sink);
+        engine.setSeed(1);
+        try (ColdTier tier = new ColdTier(directory, 1 << 20, 1 << 16)) {
+            engine.coldTier = tier;
+            engine.put(record("a1_0", "CARMICHAEL", "BRENDA", "27001"));
+            // Outras chaves até o bloco de a1_0 ser despejado para o tier
+            for (int n = 2; TestRecords.blockHolding(engine, "A", "a1_0") != null; n++) {
+                assertTrue(n < 1000);
+                engine.put(record("a" + n + "_0", "SMITH", "JOHN", Integer.toString(30000 + n)));
+            }
+            engine.put(record("b1", "CARMICHAEL", "BRENDA", "27001"));
+            assertTrue(sink.pairs.toString(), sink.pairs.contains("a1_0-b1"));
+            assertTrue(tier.promotions > 0);
+            engine.close();
+        }
+    }
+
+    @Test
+    public void fullTierDropsBlocksAndGivesBackTheirEntries() throws IOException {
+        int before = StringDictionary.SHARED.size();
+        // Dois segmentos pequenos: os blocos mais antigos são descartados
+        try (ColdTier tier = new ColdTier(directory, 2 << 10, 1 << 10)) {
+            for (int k = 0; k < 100; k++) {
+                tier.put(block("KEY" + k, 2));
+            }
+            assertTrue(tier.dropped > 0);
+            assertTrue(tier.size() < 100);
+            // Uma chave despejada de novo substitui a cópia anterior
+            tier.put(block("KEY99", 3));
+            Block promoted = tier.take("KEY99", 2.0 / 3, CONFIG);
+            assertEquals(3, promoted.recordsA.size);
+            assertNull(tier.take("KEY99", 2.0 / 3, CONFIG));
+            promoted.release();
+        }
+        assertEquals(before, StringDictionary.SHARED.size());
+    }
+}
@@ -0,0 +1,91 @@
+// EntityClustersTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EntityClustersTest {
+
+    @Test
+    public void matchesOfOneStoredRecordFormOneEntity() throws Exception {
+        EntityClusters clusters = new EntityClusters(null);
+        Record a1 = record("a1_0", "CARMICHAEL", "BRENDA", "27001");
+        Record b1 = record("b1", "CARMICHAEL", "BRENDA", "27001");
+        Record b2 = record("b1_1", "CARMICHAEL", "BRENDA", "27001");
+        Record other = record("b2", "WILLIAMS", "HAROLD", "27002");
+        try (ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 100, CONFIG, clusters)) {
+            engine.put(a1);
+            engine.put(b1);
+            engine.put(b2);
+            engine.put(other);
+            assertEquals(2, engine.matchingPairsNo);
+        }
+        // A1~B1 e A1~B2: B1 e B2 são a mesma entidade, a de A1
+        assertTrue(clusters.sameEntity(b1, b2));
+        assertTrue(clusters.sameEntity(a1, b2));
+        assertEquals(clusters.entityOf(a1), clusters.entityOf(b1));
+        assertFalse(clusters.sameEntity(a1, other));
+        EntityClusters.Stats stats = clusters.stats();
+        assertEquals(1, stats.clusters);
+        assertEquals(3, stats.records);
+        assertEquals(2, clusters.merges());
+    }
+
+    @Test
+    public void storedCopiesKeepTheSeqOfTheirRecord() {
+        RecordStore store = new RecordStore("A", false);
+        Record rec = record("a7_0", "DAVIS", "ALICE", "27003");
+        store.add(rec);
+        assertEquals(rec.seq, store.record(0).seq);
+        assertEquals(rec.seq, store.record(0).seq);
+    }
+
+    @Test
+    public void concurrentUnionsMergeIntoOneEntity() throws Exception {
+        EntityClusters clusters = new EntityClusters(null);
+        int n = 20000;
+        Record[] records = new Record[n];
+        for (int i = 0; i < n; i++) {
+            records[i] = new Record();
+        }
+        // Cada thread liga um par diferente de cada trio consecutivo; juntas formam uma cadeia
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = offset; i + 1 < n; i += 4) {
+                    clusters.accept(records[i], records[i + 1], 1.0);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long entity = clusters.entityOf(records[0]);
+        for (Record rec : records) {
+            assertEquals(entity, clusters.entityOf(rec));
+        }
+        assertEquals(n - 1, clusters.merges());
+        EntityClusters.Stats stats = clusters.stats();
+        assertEquals(1, stats.clusters);
+        assertEquals(n, stats.largest);
+    }
+
+    @Test
+    public void unmatchedRecordIsItsOwnEntity() {
+        EntityClusters clusters = new EntityClusters(null);
+        Record rec = new Record();
+        assertEquals(rec.seq, clusters.entityOf(rec));
+        assertEquals(0, clusters.stats().clusters);
+    }
+}
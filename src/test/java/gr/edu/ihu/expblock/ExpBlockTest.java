@@ -0,0 +1,88 @@
+// ExpBlockTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpBlockTest {
+
+    private static ExpBlock engine(int b, TestRecords.CollectingSink sink) {
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, b, CONFIG, sink);
+        engine.setSeed(11);
+        return engine;
+    }
+
+    private static void putAll(ExpBlock engine, List<Record> records, int batchSize) {
+        for (int i = 0; i < records.size(); i += batchSize) {
+            engine.putAll(records.subList(i, Math.min(records.size(), i + batchSize)));
+        }
+    }
+
+    private static List<String> sorted(List<String> pairs) {
+        List<String> copy = new ArrayList<>(pairs);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void putAllFindsTheSamePairsAsPut() {
+        // b grande: sem evicção, as duas entradas devem coincidir
+        TestRecords.CollectingSink one = new TestRecords.CollectingSink();
+        ExpBlock sequential = engine(100000, one);
+        for (Record rec : TestRecords.voters(500, 2)) {
+            sequential.put(rec);
+        }
+        TestRecords.CollectingSink batched = new TestRecords.CollectingSink();
+        ExpBlock batch = engine(100000, batched);
+        putAll(batch, TestRecords.voters(500, 2), 16);
+
+        assertTrue(sequential.matchingPairsNo > 0);
+        assertEquals(sequential.matchingPairsNo, batch.matchingPairsNo);
+        assertEquals(sequential.falsePositivesNo, batch.falsePositivesNo);
+        assertEquals(sequential.globalRecNo, batch.globalRecNo);
+        assertEquals(sorted(one.pairs), sorted(batched.pairs));
+    }
+
+    @Test
+    public void putAllLeavesNoEvictionRoundInProgress() {
+        ExpBlock engine = engine(40, new TestRecords.CollectingSink());
+        List<Record> records = TestRecords.voters(1000, 4);
+        for (int i = 0; i < records.size(); i += 32) {
+            engine.putAll(records.subList(i, Math.min(records.size(), i + 32)));
+            assertEquals(0, engine.evictionRemaining);
+        }
+        assertTrue(engine.currentRound > 1);
+        // Um put comum depois do lote não deixa rodada aberta
+        engine.put(record("a5000_0", "NEWKEY", "BRIAN", "27001"));
+        assertEquals(0, engine.evictionRemaining);
+    }
+
+    @Test
+    public void rejectedRecordsAreCountedAsByPut() {
+        ExpBlock sequential = engine(4, new TestRecords.CollectingSink());
+        ExpBlock batch = engine(4, new TestRecords.CollectingSink());
+        for (ExpBlock engine : Arrays.asList(sequential, batch)) {
+            engine.admission = new AdmissionFilter(64, 16);
+            engine.admission.minFrequency = 3;
+            engine.put(record("a900_0", "FILLER", "FILL", "1"));
+            engine.put(record("a901_0", "FILLER", "FILL", "1"));
+        }
+        sequential.put(record("a1_0", "CARMICHAEL", "BRENDA", "27001"));
+        sequential.put(record("b1", "CARMICHAEL", "BRENDA", "27001"));
+        batch.putAll(Arrays.asList(record("a1_0", "CARMICHAEL", "BRENDA", "27001"),
+                record("b1", "CARMICHAEL", "BRENDA", "27001")));
+
+        assertEquals(2, sequential.admission.rejected);
+        assertEquals(2, batch.admission.rejected);
+        assertEquals(sequential.globalRecNo, batch.globalRecNo);
+    }
+}
@@ -0,0 +1,24 @@
+// ExperimentRunnerTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ExperimentRunnerTest {
+
+    @Test
+    public void trulyMatchingPairsAreCountedFromTheRecords() {
+        Record[] records = {
+            record("a1_0", "GRANT", "HAROLD", "1"),
+            record("b1", "GRANT", "HAROLD", "1"),
+            record("b1", "GRANT", "HARALD", "1"),
+            record("a2_0", "SMITH", "JOHN", "1"),
+            record("b3", "DAVIS", "MARY", "1"),
+        };
+        ExperimentRunner runner = new ExperimentRunner(records, 2, 3, new MinHash());
+        // a1 com os dois b1; a2 e b3 sem par
+        assertEquals(2, runner.trulyMatchingPairsNo);
+    }
+}
@@ -0,0 +1,72 @@
+// StringDictionaryTest.java
+package gr.edu.ihu.expblock;
+
+import static gr.edu.ihu.expblock.TestRecords.CONFIG;
+import static gr.edu.ihu.expblock.TestRecords.record;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void entryIsDroppedWithItsLastReferenceAndItsIdNotReused() {
+        StringDictionary dictionary = new StringDictionary();
+        TextFeatures features = SimilarityService.extractFeatures("CARMICHAEL");
+        int id = dictionary.acquire("CARMICHAEL", features);
+        assertEquals(id, dictionary.acquire("CARMICHAEL", features));
+        assertSame(features, dictionary.features(id));
+
+        dictionary.release(id);
+        assertEquals(1, dictionary.size());
+        dictionary.release(id);
+        assertEquals(0, dictionary.size());
+
+        // Um id novo: o cache de pares (PairScoreCache) não pode confundir os dois
+        assertNotEquals(id, dictionary.acquire("CARMICHAEL", features));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void closedEngineGivesBackItsEntries() throws IOException {
+        int before = StringDictionary.SHARED.size();
+        ExpBlock engine = new ExpBlock(0.1, 2.0 / 3, 50, CONFIG, new TestRecords.CollectingSink());
+        engine.setSeed(3);
+        for (Record rec : TestRecords.voters(2000, 5)) {
+            engine.put(rec);
+        }
+        assertNotEquals(before, StringDictionary.SHARED.size());
+        engine.close();
+        assertEquals(before, StringDictionary.SHARED.size());
+    }
+
+    @Test
+    public void storeWithManyKeysRoundTrips() throws IOException {
+        Record rec = record("a1_0", "GRANT", "HAROLD", "27001");
+        rec.bKeys = new String[300];
+        for (int k = 0; k < rec.bKeys.length; k++) {
+            rec.bKeys[k] = "k" + k;
+        }
+        RecordStore store = new RecordStore("A", false);
+        store.add(rec);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        store.writeTo(new DataOutputStream(bytes));
+
+        // A cópia escrita fica com as referências de store
+        RecordStore copy = new RecordStore("A", false);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(1, copy.size);
+        assertEquals(300, copy.keys[0].length);
+        assertEquals("k299", copy.keys[0][299]);
+        assertEquals("HAROLD", copy.record(0).name);
+        copy.clear();
+    }
+}
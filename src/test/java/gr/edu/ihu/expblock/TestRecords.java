@@ -0,0 +1,82 @@
+// TestRecords.java
+package gr.edu.ihu.expblock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import gr.edu.ihu.expblock.ExpBlock.ExperimentConfig;
+
+/** Records, configs and a sink shared by the tests. */
+final class TestRecords {
+
+    /** Syntactic scoring only, so no word2vec model is needed. */
+    static final ExperimentConfig CONFIG = new ExperimentConfig(0.7, 0.3, 0.0, 0.5, 0.5, 0.0, 1.0, 0.8, 0.8, 0.8);
+
+    private TestRecords() {
+    }
+
+    /** A voter record; the origin follows the first letter of the id, as in the voter files. */
+    static Record record(String id, String surname, String name, String poBox) {
+        return ExpBlock.prepare(new String[]{id, surname, name, "addr", "town", poBox});
+    }
+
+    private static final String[] SURNAMES = {"CARMICHAEL", "CHRISTOPHER", "GRANT", "NADINE", "DAVIS", "SMITH",
+        "JOHNSON", "WILLIAMS", "BROWN", "JONES", "MILLER", "WILSON", "MOORE", "TAYLOR", "ANDERSON"};
+    private static final String[] NAMES = {"BRENDA", "BRIAN", "HAROLD", "JESSICA", "ALICE", "JOHN", "MARY", "ROBERT"};
+
+    /**
+     * A synthetic voter stream: n entities, each as an A record followed by a B record
+     * with a typo in a quarter of its fields, so that most pairs match.
+     */
+    static List<Record> voters(int n, long seed) {
+        Random random = new Random(seed);
+        List<Record> records = new ArrayList<>(2 * n);
+        for (int i = 0; i < n; i++) {
+            String surname = SURNAMES[random.nextInt(SURNAMES.length)] + random.nextInt(50);
+            String name = NAMES[random.nextInt(NAMES.length)];
+            String poBox = Integer.toString(27000 + random.nextInt(40));
+            records.add(record("a" + i + "_0", surname, name, poBox));
+            records.add(record("b" + i, typo(surname, random), typo(name, random), poBox));
+        }
+        return records;
+    }
+
+    private static String typo(String s, Random random) {
+        if (random.nextInt(4) != 0) return s;
+        char[] chars = s.toCharArray();
+        chars[random.nextInt(chars.length)] = (char) ('A' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    /** A sink that keeps the matches as "existingId-incomingId" strings. */
+    static final class CollectingSink implements MatchSink {
+        final List<String> pairs = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void accept(Record existing, Record incoming, double score) {
+            pairs.add(existing.id + "-" + incoming.id);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** The block of the engine holding a record with the given origin and id, or null. */
+    static Block blockHolding(ExpBlock engine, String origin, String id) {
+        for (Block block : engine.arr) {
+            if (block == null) continue;
+            RecordStore store = origin.equals("A") ? block.recordsA : block.recordsB;
+            for (int i = 0; i < store.size; i++) {
+                if (store.ids[i].equals(id)) return block;
+            }
+        }
+        return null;
+    }
+}